@@ -0,0 +1,403 @@
+package com.example.chadgpt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.logging.Logger;
+
+// Optional local gateway shared by several servers on one host. Each mod points -Dchadgpt.gateway_url
+// here instead of calling the Responses API itself; the gateway holds the pooled upstream connections,
+// a shared response cache, one global rate limit, and coalesces identical requests already in flight.
+// JDK only, so it runs straight from the mod jar:
+//   java -cp chadgpt-1.0.0.jar com.example.chadgpt.ChadGptGateway
+// With -Dchadgpt.gateway.mock=true it answers from a built-in mock upstream; no network or key needed.
+public final class ChadGptGateway {
+    private static final Logger LOG = Logger.getLogger("ChadGPT-Gateway");
+
+    // Listen address; loopback only by default.
+    private static final String BIND = System.getProperty("chadgpt.gateway.bind", "127.0.0.1");
+    private static final int PORT = Integer.parseInt(System.getProperty("chadgpt.gateway.port", "8787"));
+
+    // Upstream and auth; the mod's Authorization header is forwarded, the env key is used when it is absent.
+    private static final String UPSTREAM_URL = System.getProperty("chadgpt.gateway.upstream_url", "https://api.openai.com/v1/responses");
+    private static final String API_KEY_ENV = System.getProperty("chadgpt.env", "OPENAI_API_KEY");
+    private static final int CONNECT_MS = Integer.parseInt(System.getProperty("chadgpt.responses_connect_ms", "20000"));
+    private static final int READ_MS = Integer.parseInt(System.getProperty("chadgpt.responses_read_ms", "120000"));
+
+    // Shared response cache. Requests carrying the mod's X-ChadGPT-Answer-Key share a reply per key;
+    // others need a byte-identical body. Either way the Authorization header is part of the key.
+    private static final int CACHE_ENTRIES = Math.max(0, Integer.parseInt(System.getProperty("chadgpt.gateway.cache_entries", "256")));
+    private static final long CACHE_TTL_MS = Math.max(0, Long.parseLong(System.getProperty("chadgpt.gateway.cache_ttl_ms", "600000")));
+
+    // Global limits across every connected server.
+    private static final int RPM = Math.max(1, Integer.parseInt(System.getProperty("chadgpt.gateway.rpm", "60")));
+    private static final int BURST = Math.max(1, Integer.parseInt(System.getProperty("chadgpt.gateway.burst", "10")));
+    private static final int MAX_CONCURRENCY = Math.max(1, Integer.parseInt(System.getProperty("chadgpt.gateway.max_concurrency", "4")));
+    private static final long MAX_WAIT_MS = Math.max(0, Long.parseLong(System.getProperty("chadgpt.gateway.max_wait_ms", "30000")));
+
+    // Mock upstream for local testing.
+    private static final boolean MOCK = Boolean.parseBoolean(System.getProperty("chadgpt.gateway.mock", "false"));
+    private static final long MOCK_DELAY_MS = Math.max(0, Long.parseLong(System.getProperty("chadgpt.gateway.mock_delay_ms", "500")));
+    private static final String MOCK_PATH = "/mock/v1/responses";
+    // Batch question lines in the request input, e.g. "[2] Steve: chadgpt hi".
+    private static final Pattern MOCK_QUESTION = Pattern.compile("\\[(\\d+)\\] ");
+    private static final Pattern MOCK_PREVIOUS = Pattern.compile("\"previous_response_id\":\"([^\"]*)\"");
+    private static final AtomicLong MOCK_IDS = new AtomicLong();
+
+    private final HttpServer server;
+    // Mock upstream on its own server and threads so proxy threads waiting on it can never starve it; null unless MOCK.
+    private final HttpServer mockServer;
+    private final String upstreamUrl;
+
+    // Access order; the eldest entry is the least recently used.
+    private final LinkedHashMap<String, Upstream> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Upstream>> inflight = new ConcurrentHashMap<>();
+    private final Semaphore upstreamSlots = new Semaphore(MAX_CONCURRENCY, true);
+
+    // Token bucket for the global rate limit.
+    private double tokens = BURST;
+    private long refillNanos = System.nanoTime();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong upstreamCalls = new AtomicLong();
+    private final AtomicLong upstreamErrors = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    // One upstream reply; kept in the cache and handed to coalesced waiters.
+    private static final class Upstream {
+        final int code;
+        final byte[] body;
+        final long storedMs = System.currentTimeMillis();
+
+        Upstream(int code, byte[] body) {
+            this.code = code;
+            this.body = body;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Keep-alive pool sized to match the concurrency limit; see sun.net.www.http.KeepAliveCache.
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(MAX_CONCURRENCY));
+        }
+        ChadGptGateway gateway = new ChadGptGateway();
+        Runtime.getRuntime().addShutdownHook(new Thread(gateway::stop, "ChadGPT-Gateway-Stop"));
+        gateway.start();
+    }
+
+    ChadGptGateway() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(BIND), PORT), 0);
+        server.createContext("/v1/responses", this::handleResponses);
+        server.createContext("/stats", this::handleStats);
+        if (MOCK) {
+            mockServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName(BIND), 0), 0);
+            mockServer.createContext(MOCK_PATH, ChadGptGateway::handleMock);
+            mockServer.setExecutor(Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "ChadGPT-Gateway-Mock");
+                t.setDaemon(true);
+                return t;
+            }));
+            upstreamUrl = "http://" + BIND + ":" + mockServer.getAddress().getPort() + MOCK_PATH;
+        } else {
+            mockServer = null;
+            upstreamUrl = UPSTREAM_URL;
+        }
+        // Threads mostly wait on upstream; size for every slot plus the waiters queued behind them.
+        server.setExecutor(Executors.newFixedThreadPool(MAX_CONCURRENCY * 4, r -> {
+            Thread t = new Thread(r, "ChadGPT-Gateway");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    void start() {
+        if (mockServer != null) mockServer.start();
+        server.start();
+        LOG.info("ChadGPT gateway listening on http://" + BIND + ":" + server.getAddress().getPort()
+                + "/v1/responses; upstream " + upstreamUrl + "; " + RPM + " rpm, burst " + BURST
+                + ", " + MAX_CONCURRENCY + " concurrent; cache " + CACHE_ENTRIES + " entries, ttl " + CACHE_TTL_MS + " ms");
+    }
+
+    void stop() {
+        server.stop(0);
+        if (mockServer != null) mockServer.stop(0);
+        LOG.info("ChadGPT gateway stopped; " + stats());
+    }
+
+    private void handleResponses(HttpExchange ex) throws IOException {
+        try {
+            if (!"POST".equals(ex.getRequestMethod())) {
+                send(ex, 405, error("POST only."), "rejected");
+                return;
+            }
+            requests.incrementAndGet();
+            byte[] body = readAll(ex.getRequestBody());
+
+            String auth = ex.getRequestHeaders().getFirst("Authorization");
+            if (auth == null || auth.trim().isEmpty()) {
+                String key = System.getenv(API_KEY_ENV);
+                if (key != null && !key.isEmpty()) auth = "Bearer " + key;
+            }
+            if (auth == null && !MOCK) {
+                send(ex, 401, error("No Authorization header and " + API_KEY_ENV + " is not set on the gateway."), "rejected");
+                return;
+            }
+
+            // Keyed by credentials too; a reply fetched with one key is never served to another caller.
+            // Mod bodies carry each server's own chat context, so the mod's answer key is what lets
+            // the same question from two servers meet; without one only exact retries match.
+            String answerKey = ex.getRequestHeaders().getFirst("X-ChadGPT-Answer-Key");
+            String key = answerKey != null && !answerKey.trim().isEmpty()
+                    ? "answer:" + sha256(auth, answerKey.trim().getBytes(StandardCharsets.UTF_8))
+                    : "body:" + sha256(auth, body);
+            Upstream hit = cached(key);
+            if (hit != null) {
+                cacheHits.incrementAndGet();
+                send(ex, hit.code, hit.body, "hit");
+                return;
+            }
+
+            // First caller for a body makes the upstream call; identical callers wait for its reply.
+            CompletableFuture<Upstream> mine = new CompletableFuture<>();
+            CompletableFuture<Upstream> existing = inflight.putIfAbsent(key, mine);
+            if (existing != null) {
+                coalesced.incrementAndGet();
+                Upstream up = existing.get();
+                send(ex, up.code, up.body, "coalesced");
+                return;
+            }
+
+            Upstream up;
+            try {
+                up = callUpstream(body, auth);
+                if (up.code / 100 == 2) remember(key, up);
+                mine.complete(up);
+            } catch (Exception e) {
+                up = new Upstream(502, error("Upstream failed: " + e));
+                mine.complete(up);
+            } finally {
+                inflight.remove(key, mine);
+            }
+            send(ex, up.code, up.body, "miss");
+        } catch (InterruptedException | ExecutionException e) {
+            send(ex, 502, error("Gateway interrupted."), "error");
+        } finally {
+            ex.close();
+        }
+    }
+
+    private Upstream callUpstream(byte[] payload, String auth) throws Exception {
+        long deadline = System.currentTimeMillis() + MAX_WAIT_MS;
+        if (!takeRateToken(deadline)) {
+            rateLimited.incrementAndGet();
+            return new Upstream(429, error("Gateway rate limit; " + RPM + " requests per minute."));
+        }
+        if (!upstreamSlots.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+            rateLimited.incrementAndGet();
+            return new Upstream(429, error("Gateway busy; " + MAX_CONCURRENCY + " upstream calls in flight."));
+        }
+        upstreamCalls.incrementAndGet();
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(upstreamUrl).openConnection();
+            conn.setConnectTimeout(CONNECT_MS);
+            conn.setReadTimeout(READ_MS);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", "application/json");
+            if (auth != null) conn.setRequestProperty("Authorization", auth);
+            conn.setRequestProperty("User-Agent", "ChadGPT-Gateway/1.7");
+            try (OutputStream os = conn.getOutputStream()) {
+                os.write(payload);
+            }
+            int code = conn.getResponseCode();
+            InputStream in = code / 100 == 2 ? conn.getInputStream() : conn.getErrorStream();
+            // Read to the end and close rather than disconnect; the socket stays in the keep-alive pool.
+            byte[] body = in == null ? new byte[0] : readAll(in);
+            if (code / 100 != 2) upstreamErrors.incrementAndGet();
+            return new Upstream(code, body);
+        } catch (Exception e) {
+            upstreamErrors.incrementAndGet();
+            if (conn != null) conn.disconnect();
+            throw e;
+        } finally {
+            upstreamSlots.release();
+        }
+    }
+
+    // Blocks until a token is free or the deadline passes.
+    private boolean takeRateToken(long deadlineMs) throws InterruptedException {
+        while (true) {
+            long waitMs;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(BURST, tokens + (now - refillNanos) * RPM / 60_000_000_000.0);
+                refillNanos = now;
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return true;
+                }
+                waitMs = (long) Math.ceil((1 - tokens) * 60_000.0 / RPM);
+            }
+            if (System.currentTimeMillis() + waitMs > deadlineMs) return false;
+            Thread.sleep(waitMs);
+        }
+    }
+
+    private synchronized Upstream cached(String key) {
+        Upstream up = cache.get(key);
+        if (up == null) return null;
+        if (System.currentTimeMillis() - up.storedMs > CACHE_TTL_MS) {
+            cache.remove(key);
+            return null;
+        }
+        return up;
+    }
+
+    private synchronized void remember(String key, Upstream up) {
+        if (CACHE_ENTRIES == 0) return;
+        cache.put(key, up);
+        while (cache.size() > CACHE_ENTRIES) {
+            cache.remove(cache.keySet().iterator().next());
+        }
+    }
+
+    private void handleStats(HttpExchange ex) throws IOException {
+        try {
+            send(ex, 200, stats().getBytes(StandardCharsets.UTF_8), "stats");
+        } finally {
+            ex.close();
+        }
+    }
+
+    private String stats() {
+        int entries;
+        synchronized (this) {
+            entries = cache.size();
+        }
+        return "requests=" + requests.get() + "; cache_hits=" + cacheHits.get() + "; coalesced=" + coalesced.get()
+                + "; upstream_calls=" + upstreamCalls.get() + "; upstream_errors=" + upstreamErrors.get()
+                + "; rate_limited=" + rateLimited.get() + "; cache_entries=" + entries;
+    }
+
+    private static void handleMock(HttpExchange ex) throws IOException {
+        try {
+            String body = new String(readAll(ex.getRequestBody()), StandardCharsets.UTF_8);
+            Thread.sleep(MOCK_DELAY_MS);
+            send(ex, 200, mockReply(body).getBytes(StandardCharsets.UTF_8), "mock");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            ex.close();
+        }
+    }
+
+    // A reply in the shape the request's text.format asks for (plain tellraw, segments, or batch
+    // replies for every numbered question), under a fresh response id so follow-ups can chain on it.
+    private static String mockReply(String body) {
+        String id = "resp_mock_" + MOCK_IDS.incrementAndGet();
+        Matcher previous = MOCK_PREVIOUS.matcher(body);
+        String says = "gateway mock " + id + (previous.find() ? " follows " + previous.group(1) : "");
+        // Compact schema JSON from the mod; instruction text only ever has the escaped \"segments\".
+        boolean segments = body.contains("\"segments\":{");
+
+        String output;
+        if (body.contains("\"chadgpt_batch\"")) {
+            int questions = 0;
+            for (Matcher m = MOCK_QUESTION.matcher(body); m.find(); ) questions = Math.max(questions, Integer.parseInt(m.group(1)));
+            StringBuilder replies = new StringBuilder();
+            for (int i = 1; i <= Math.max(1, questions); i++) {
+                if (replies.length() > 0) replies.append(',');
+                String text = says + " to question " + i;
+                replies.append("{\"id\":").append(i).append(',')
+                        .append(segments ? "\"segments\":" + mockSegments(text) : "\"tellraw\":" + quote(mockTellraw(text)))
+                        .append('}');
+            }
+            output = "{\"replies\":[" + replies + "]}";
+        } else if (segments) {
+            output = "{\"segments\":" + mockSegments(says) + "}";
+        } else {
+            output = mockTellraw(says);
+        }
+        return "{\"id\":" + quote(id) + ",\"object\":\"response\",\"status\":\"completed\",\"output\":[{\"type\":\"message\",\"role\":\"assistant\",\"content\":["
+                + "{\"type\":\"output_text\",\"text\":" + quote(output) + "}]}],"
+                + "\"usage\":{\"input_tokens\":0,\"output_tokens\":0}}";
+    }
+
+    private static String mockTellraw(String text) {
+        return "/tellraw @a [\"\",{\"text\":" + quote(text) + ",\"color\":\"aqua\"}]";
+    }
+
+    // Color 11 is aqua in the mod's segment palette.
+    private static String mockSegments(String text) {
+        return "[{\"t\":" + quote(text) + ",\"c\":11,\"b\":false,\"i\":false,\"n\":false}]";
+    }
+
+    // JSON string literal; enough for the mock's own text.
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    // Helpers.
+    private static void send(HttpExchange ex, int code, byte[] body, String source) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "stats".equals(source) ? "text/plain; charset=utf-8" : "application/json");
+        ex.getResponseHeaders().set("X-ChadGPT-Gateway", source);
+        ex.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    private static byte[] error(String message) {
+        String safe = message.replace("\\", "\\\\").replace("\"", "'");
+        return ("{\"error\":{\"message\":\"" + safe + "\",\"type\":\"chadgpt_gateway\"}}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream is = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            for (int n; (n = is.read(buf)) != -1; ) out.write(buf, 0, n);
+            return out.toByteArray();
+        }
+    }
+
+    private static String sha256(String auth, byte[] body) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update((auth == null ? "" : auth).getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            byte[] d = md.digest(body);
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (byte b : d) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.chadgpt;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Named counters for the stats log lines; thread-safe, process-wide, never reset.
+final class ChadGptMetrics {
+    private static final Map<String, AtomicLong> COUNTERS = new ConcurrentSkipListMap<>();
+
+    private ChadGptMetrics() {}
+
+    private static AtomicLong counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new AtomicLong());
+    }
+
+    static long add(String name, long delta) {
+        return counter(name).addAndGet(delta);
+    }
+
+    static long inc(String name) {
+        return add(name, 1);
+    }
+
+    static void max(String name, long value) {
+        counter(name).accumulateAndGet(value, Math::max);
+    }
+
+    static long get(String name) {
+        AtomicLong c = COUNTERS.get(name);
+        return c == null ? 0 : c.get();
+    }
+
+    // num/den rounded to one decimal; "-" when nothing has been counted yet.
+    static String ratio(String num, String den) {
+        long d = get(den);
+        if (d == 0) return "-";
+        return String.valueOf(Math.round(get(num) * 10.0 / d) / 10.0);
+    }
+
+    // All counters as "name=value" pairs in name order.
+    static String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, AtomicLong> e : COUNTERS.entrySet()) {
+            if (sb.length() > 0) sb.append("; ");
+            sb.append(e.getKey()).append('=').append(e.getValue().get());
+        }
+        return sb.toString();
+    }
+}
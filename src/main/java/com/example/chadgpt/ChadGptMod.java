@@ -12,22 +12,34 @@ import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.ServerChatEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.event.server.FMLServerStoppingEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.BufferedReader;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
@@ -52,6 +64,8 @@ public class ChadGptMod {
     // Endpoints and auth.
     private static final String RESPONSES_URL = System.getProperty("chadgpt.responses_url", "https://api.openai.com/v1/responses");
     private static final String API_KEY_ENV    = System.getProperty("chadgpt.env", "OPENAI_API_KEY");
+    // Optional local gateway (ChadGptGateway) shared by several servers; used instead of RESPONSES_URL when set.
+    private static final String GATEWAY_URL   = System.getProperty("chadgpt.gateway_url", "").trim();
 
     // Default model; override with -Dchadgpt.model=...
     private static final String MODEL = System.getProperty("chadgpt.model", "gpt-5-nano");
@@ -62,18 +76,74 @@ public class ChadGptMod {
     private static final int HTTP_RETRIES    = Integer.parseInt(System.getProperty("chadgpt.http_retries", "2"));
     private static final int RETRY_BASE_MS   = Integer.parseInt(System.getProperty("chadgpt.retry_base_ms", "750"));
 
+    // Output mode; "tellraw" has the model write the whole /tellraw command, "segments" has it return
+    // a compact styled segment list through a strict JSON schema and builds the command here.
+    private static final String OUTPUT_MODE = "segments".equalsIgnoreCase(System.getProperty("chadgpt.output", "tellraw").trim())
+            ? "segments" : "tellraw";
+    private static final boolean SEGMENTS = "segments".equals(OUTPUT_MODE);
+
     // Cooldown between triggers; shared by both routes.
     private static final long COOLDOWN_MS = Long.parseLong(System.getProperty("chadgpt.cooldown_ms", "3000"));
 
-    // Follow-up window; if >0 and a player says a line containing the word "you", regular ChadGPT replies.
-    private int followWindowRemaining = 0;
+    // Batching; questions queued for the same route are answered together, up to BATCH_MAX per call.
+    // A worker waits BATCH_LINGER_MS for more questions before sending; 0 batches only an existing backlog.
+    private static final int BATCH_MAX = Math.max(1, Integer.parseInt(System.getProperty("chadgpt.batch_max", "4")));
+    private static final long BATCH_LINGER_MS = Math.max(0, Long.parseLong(System.getProperty("chadgpt.batch_linger_ms", "0")));
+    private static final Map<Route, Deque<Job>> PENDING = new EnumMap<>(Route.class);
+    static {
+        for (Route r : Route.values()) PENDING.put(r, new ConcurrentLinkedDeque<>());
+    }
+
+    // Retrieval cache for the file_search routes; null when disabled with -Dchadgpt.retrieval_cache=false.
+    private static final RetrievalCache RETRIEVAL = Boolean.parseBoolean(System.getProperty("chadgpt.retrieval_cache", "true"))
+            ? new RetrievalCache(
+                    Math.max(1, Integer.parseInt(System.getProperty("chadgpt.retrieval_cache_entries", "128"))),
+                    Math.max(1, Long.parseLong(System.getProperty("chadgpt.retrieval_cache_chars", "400000"))),
+                    Math.max(0, Long.parseLong(System.getProperty("chadgpt.retrieval_cache_ttl_ms", "21600000"))),
+                    Double.parseDouble(System.getProperty("chadgpt.retrieval_min_confidence", "0.8")),
+                    Math.max(0, Integer.parseInt(System.getProperty("chadgpt.retrieval_max_extra_terms", "2"))),
+                    Double.parseDouble(System.getProperty("chadgpt.retrieval_min_score", "0.3")),
+                    Math.max(1, Integer.parseInt(System.getProperty("chadgpt.retrieval_max_chunks", "8"))))
+            : null;
+
+    // Requests not yet answered; a newer trigger from the same player on the same route supersedes
+    // the older one, and everything still here is cancelled when the server stops.
+    private static final Set<Job> ACTIVE = ConcurrentHashMap.newKeySet();
+    private static final Map<String, Job> LATEST_BY_PLAYER_ROUTE = new ConcurrentHashMap<>();
+
+    // Log a stats line every N Responses calls.
+    private static final int STATS_EVERY = Math.max(1, Integer.parseInt(System.getProperty("chadgpt.stats_every", "20")));
+
+    // Follow-up window; per player. After ChadGPT answers a player, a line from that same player
+    // containing the word "you" within their next two lines is answered as a follow-up.
     private static final Pattern YOU_WORD = Pattern.compile("(?i)(^|\\W)you(\\W|$)");
+
+    // Per-player sessions; follow-ups chain on the stored previous response so only the new message is sent.
+    // Idle sessions expire; at most SESSION_MAX are held, least recently active evicted first.
+    private static final boolean SESSION_CHAINING = Boolean.parseBoolean(System.getProperty("chadgpt.session_chaining", "true"));
+    private static final long SESSION_IDLE_MS = Math.max(0, Long.parseLong(System.getProperty("chadgpt.session_idle_ms", "600000")));
+    private static final int SESSION_MAX = Math.max(1, Integer.parseInt(System.getProperty("chadgpt.session_max", "64")));
+    private static final Map<String, Session> SESSIONS = new ConcurrentHashMap<>();
+
+    // Startup warm-up; runs on its own daemon thread so server start is never delayed.
+    private static final boolean WARMUP = Boolean.parseBoolean(System.getProperty("chadgpt.warmup", "true"));
+    private static final int WARMUP_ITERATIONS = Math.max(1, Integer.parseInt(System.getProperty("chadgpt.warmup_iterations", "200")));
+    private static volatile boolean warmupDone = false;
+    private static final AtomicBoolean FIRST_REQUEST_LOGGED = new AtomicBoolean(false);
+
+    // Environment lookups are fixed for the life of the JVM; resolve each name once.
+    private static final Map<String, String> ENV_CACHE = new ConcurrentHashMap<>();
 
     private final AtomicLong lastCallMs = new AtomicLong(0);
 
     public ChadGptMod() {
         MinecraftForge.EVENT_BUS.register(this);
         LOG.info("ChadGPT Forge mod loaded.");
+        if (WARMUP) {
+            Thread t = new Thread(ChadGptMod::warmup, "ChadGPT-Warmup");
+            t.setDaemon(true);
+            t.start();
+        }
     }
 
     @SubscribeEvent
@@ -83,12 +153,19 @@ public class ChadGptMod {
 
         // Record every line; evict when over cap.
         String author = "Unknown";
+        String playerKey = null;
         try {
             if (event.getPlayer() != null && event.getPlayer().getGameProfile() != null) {
                 author = event.getPlayer().getGameProfile().getName();
+                playerKey = event.getPlayer().getGameProfile().getId() != null
+                        ? event.getPlayer().getGameProfile().getId().toString()
+                        : author;
             }
         } catch (Throwable ignored) {}
         appendHistory(author, raw);
+
+        // Only players ChadGPT has answered recently have a session.
+        Session session = playerKey != null ? liveSession(playerKey) : null;
 
         String lower = raw.toLowerCase(Locale.ROOT);
         boolean explicitHasChadGpt = lower.contains("chadgpt");
@@ -96,7 +173,8 @@ public class ChadGptMod {
         boolean explicitHasOre     = explicitHasChadGpt && lower.contains("ore");
 
         boolean followupYou = !explicitHasChadGpt
-                && followWindowRemaining > 0
+                && session != null
+                && session.followRemaining.get() > 0
                 && YOU_WORD.matcher(lower).find();
 
         boolean shouldTrigger = explicitHasChadGpt || followupYou;
@@ -116,60 +194,95 @@ public class ChadGptMod {
                 LOG.info("[ChadGPT ack] Message received.");
             });
 
+            long triggerNanos = System.nanoTime();
+
             // Snapshot the last N previous lines; exclude the current line which was just appended.
             List<ChatLine> context = snapshotPrevious(HISTORY_TO_SEND);
             String latestUserMessage = raw; // send the exact player message
 
-            // Priority: ore database > silent gear > regular
-            if (explicitHasOre) {
-                // Ore database search; Responses API with file_search; /tellraw output.
-                POOL.submit(() -> {
-                    String cmdFromModel = responsesWithOreFileSearch(context, latestUserMessage);
-                    List<String> cmds = buildTellrawCommandsWithIdentifier(cmdFromModel);
-                    server.execute(() -> {
-                        for (String c : cmds) {
-                            server.getCommands().performCommand(server.createCommandSourceStack(), c);
-                            LOG.info("[ChadGPT out] " + extractPlainTextFromCommand(c));
-                        }
-                        // Start a new two-message follow-up window after the final response is sent.
-                        followWindowRemaining = 2;
-                    });
-                });
-            } else if (explicitHasSilent) {
-                // Silent Gear assister; Responses API with file_search; /tellraw output.
-                POOL.submit(() -> {
-                    String cmdFromModel = responsesWithFileSearch(context, latestUserMessage);
-                    // Build one or more tellraw commands; inject identifier; split on "\n"
-                    List<String> cmds = buildTellrawCommandsWithIdentifier(cmdFromModel);
-                    server.execute(() -> {
-                        for (String c : cmds) {
-                            server.getCommands().performCommand(server.createCommandSourceStack(), c);
-                            LOG.info("[ChadGPT out] " + extractPlainTextFromCommand(c));
-                        }
-                        // Start a new two-message follow-up window after the final response is sent.
-                        followWindowRemaining = 2;
-                    });
-                });
+            if (session == null && playerKey != null) session = openSession(playerKey);
+            if (session != null) session.lastActiveMs = now;
+
+            // Priority: ore database > silent gear > regular; a follow-up stays on the route it follows.
+            Route route = explicitHasOre ? Route.ORE : explicitHasSilent ? Route.SILENT : Route.REGULAR;
+            String previousResponseId = null;
+            if (followupYou) {
+                route = session.lastRoute != null ? session.lastRoute : Route.REGULAR;
+                previousResponseId = SESSION_CHAINING ? session.lastResponseId : null;
+            }
+
+            Job job = new Job(route, context, latestUserMessage, author, server, triggerNanos, session, previousResponseId,
+                    playerKey != null ? playerKey + "|" + route.name() : null);
+            ACTIVE.add(job);
+            if (job.supersedeKey != null) {
+                Job stale = LATEST_BY_PLAYER_ROUTE.put(job.supersedeKey, job);
+                if (stale != null && !stale.cancelled) {
+                    LOG.info("[ChadGPT] {} asked again on the {} route; cancelling the earlier request", author, route.name().toLowerCase(Locale.ROOT));
+                    cancel(stale, "superseded");
+                }
+            }
+            if (previousResponseId != null) {
+                // Chained turns belong to one player's conversation; never batched.
+                POOL.submit(() -> answer(job.route, Collections.singletonList(job)));
             } else {
-                // Regular ChadGPT; Responses API; /tellraw output.
-                POOL.submit(() -> {
-                    String cmdFromModel = responsesSimple(context, latestUserMessage);
-                    List<String> cmds = buildTellrawCommandsWithIdentifier(cmdFromModel);
-                    server.execute(() -> {
-                        for (String c : cmds) {
-                            server.getCommands().performCommand(server.createCommandSourceStack(), c);
-                            LOG.info("[ChadGPT out] " + extractPlainTextFromCommand(c));
-                        }
-                        followWindowRemaining = 2;
-                    });
-                });
+                Route queued = route;
+                PENDING.get(queued).addLast(job);
+                POOL.submit(() -> drain(queued));
             }
         }
 
-        // Count down any existing follow-up window on every player chat line.
-        if (followWindowRemaining > 0) {
-            followWindowRemaining--;
+        // Count down this player's follow-up window on each of their own chat lines.
+        if (session != null) {
+            session.followRemaining.updateAndGet(n -> n > 0 ? n - 1 : 0);
         }
+    }
+
+    @SubscribeEvent
+    public void onServerStopping(FMLServerStoppingEvent event) {
+        int n = 0;
+        for (Job job : ACTIVE) {
+            cancel(job, "shutdown");
+            n++;
+        }
+        LOG.info("ChadGPT cancelled {} pending request(s) on shutdown | {}", n, ChadGptMetrics.summary());
+    }
+
+    // One player's conversation with ChadGPT; read on the server thread, written from worker callbacks.
+    private static final class Session {
+        final AtomicInteger followRemaining = new AtomicInteger(0);
+        volatile String lastResponseId;
+        volatile Route lastRoute;
+        volatile long lastActiveMs = System.currentTimeMillis();
+    }
+
+    private static Session liveSession(String playerKey) {
+        Session s = SESSIONS.get(playerKey);
+        if (s != null && System.currentTimeMillis() - s.lastActiveMs > SESSION_IDLE_MS) {
+            SESSIONS.remove(playerKey, s);
+            ChadGptMetrics.inc("sessions.expired");
+            return null;
+        }
+        return s;
+    }
+
+    private static Session openSession(String playerKey) {
+        long now = System.currentTimeMillis();
+        SESSIONS.values().removeIf(s -> now - s.lastActiveMs > SESSION_IDLE_MS);
+        while (SESSIONS.size() >= SESSION_MAX) {
+            String eldest = null;
+            long eldestMs = Long.MAX_VALUE;
+            for (Map.Entry<String, Session> e : SESSIONS.entrySet()) {
+                if (e.getValue().lastActiveMs < eldestMs) {
+                    eldestMs = e.getValue().lastActiveMs;
+                    eldest = e.getKey();
+                }
+            }
+            if (eldest == null) break;
+            SESSIONS.remove(eldest);
+            ChadGptMetrics.inc("sessions.evicted");
+        }
+        ChadGptMetrics.inc("sessions.opened");
+        return SESSIONS.computeIfAbsent(playerKey, k -> new Session());
     }
 
     // Store and snapshot history.
@@ -189,72 +302,479 @@ public class ChadGptMod {
     }
 
     // ---------------------------
-    // Regular route; Responses API with minimal body: model; instructions; input.
-    // Includes your tellraw policy; colors themed by content.
+    // Routes; one Responses call shape each. Body includes only: model; instructions; input;
+    // plus tools:[file_search] with a vector store id from ENV for the data-backed routes.
     // ---------------------------
-    private String responsesSimple(List<ChatLine> previous, String latestUserMessage) {
-        String apiKey = System.getenv(API_KEY_ENV);
-        if (apiKey == null || apiKey.isEmpty()) {
+    private enum Route {
+        // Regular ChadGPT; includes your tellraw policy; colors themed by content.
+        REGULAR(REGULAR_INSTRUCTIONS, REGULAR_SEGMENT_INSTRUCTIONS, null, null),
+        // Silent Gear assister.
+        SILENT(SILENT_INSTRUCTIONS, SILENT_SEGMENT_INSTRUCTIONS, "CHADGPT_VECTOR_STORE_ID", "Set CHADGPT_VECTOR_STORE_ID for Silent Gear file search."),
+        // Ore database search.
+        ORE(ORE_INSTRUCTIONS, ORE_SEGMENT_INSTRUCTIONS, "CHADGPT_ORE_VECTOR_STORE_ID", "Set CHADGPT_ORE_VECTOR_STORE_ID for Ore file search.");
+
+        final String tellrawInstructions;
+        final String segmentInstructions;
+        final String vectorStoreEnv;
+        final String missingStoreMessage;
+
+        Route(String tellrawInstructions, String segmentInstructions, String vectorStoreEnv, String missingStoreMessage) {
+            this.tellrawInstructions = tellrawInstructions;
+            this.segmentInstructions = segmentInstructions;
+            this.vectorStoreEnv = vectorStoreEnv;
+            this.missingStoreMessage = missingStoreMessage;
+        }
+
+        String instructions() {
+            return SEGMENTS ? segmentInstructions : tellrawInstructions;
+        }
+    }
+
+    // Segments mode colors; the model sends an index into this list, in the order of the named
+    // Minecraft colors, so a reply can never carry an invalid color.
+    private static final String[] PALETTE = {
+            "black", "dark_blue", "dark_green", "dark_aqua", "dark_red", "dark_purple", "gold", "gray",
+            "dark_gray", "blue", "green", "aqua", "red", "light_purple", "yellow", "white"};
+
+    // Replaces the tellraw policy in segments mode; the schema enforces the shape, this explains it.
+    private static final String SEGMENTS_POLICY =
+            "Your reply is shown in Minecraft chat; it is assembled from the segments you return.\n" +
+            "Output policy:\n" +
+            "- Return only JSON matching the given schema: {\"segments\":[...]} in display order; no commentary.\n" +
+            "- t: the segment's text; plain characters only; no JSON; no commands; no section symbol codes.\n" +
+            "- c: color index; 0 black; 1 dark_blue; 2 dark_green; 3 dark_aqua; 4 dark_red; 5 dark_purple; 6 gold; 7 gray; 8 dark_gray; 9 blue; 10 green; 11 aqua; 12 red; 13 light_purple; 14 yellow; 15 white.\n" +
+            "- b: bold; i: italic; you may combine them. Colors apply per segment.\n" +
+            "- n: true to start a new chat line after this segment; otherwise false.\n" +
+            "- Merge neighbouring text that shares a style into one segment; keep segments few.\n" +
+            "List rendering rules:\n" +
+            "- Bullet: a segment whose text is \"• \" in the bullet color, then the item text; nested bullets use \"  • \".\n" +
+            "- End each item with n true.\n";
+
+    private static final String REGULAR_PERSONA =
+            // Voice and behavior.
+            "You are ChadGPT; a chaotic Gen Alpha brainrot minecraft player assisting other players on a server. " +
+            "Speak in extreme brainrot style; meme-heavy; zoomer slang; absurd energy; lowercase only; minimal punctuation. " +
+            "No emojis. No links. No new lines in the physical output. Use recent player chat for context but answer the last message. " +
+            "Color segments based on theme; for example if the subject mentions emerald, use an emerald tone; if it mentions rainbow, vary colors across the line.\n";
+
+    private static final String REGULAR_INSTRUCTIONS = REGULAR_PERSONA +
+            // /tellraw policy block; verbatim rules embedded.
+            "You format messages for Minecraft Java 1.16.5 using /tellraw.\n" +
+            "Output policy:\n" +
+            "- Emit exactly one physical line per response; no literal newlines; no commentary; no code fences.\n" +
+            "- Command shape must be: /tellraw @a <Component>\n" +
+            "- Use Raw JSON Text; not SNBT; not Bedrock rawtext; not section symbol codes.\n" +
+            "- Only these keys are allowed on objects: \"text\", \"color\", \"bold\", \"italic\".\n" +
+            "- To compose multiple segments, use a top-level JSON array of components.\n" +
+            "- For visual line breaks, include the literal string \"\\n\" as an array element or inside a \"text\" string.\n" +
+            "- Never invent other keys; never use hoverEvent; clickEvent; extra; score; selector; translate; nbt.\n" +
+            "Colors:\n" +
+            "- Allowed color names for \"color\" plus their canonical hex equivalents:\n" +
+            "  black #000000; dark_blue #0000AA; dark_green #00AA00; dark_aqua #00AAAA; dark_red #AA0000; dark_purple #AA00AA; gold #FFAA00; gray #AAAAAA; dark_gray #555555; blue #5555FF; green #55FF55; aqua #55FFFF; red #FF5555; light_purple #FF55FF; yellow #FFFF55; white #FFFFFF.\n" +
+            "- You may also use 6-digit hex strings like \"#00ff88\".\n" +
+            "Formatting rules:\n" +
+            "- Bold: \"bold\": true\n" +
+            "- Italic: \"italic\": true\n" +
+            "- You may combine bold and italic on the same segment.\n" +
+            "- Colors apply per segment.\n" +
+            "List rendering rules:\n" +
+            "- Unordered bullet: prefix the item with a bullet component whose text is \"• \" and your chosen bullet color.\n" +
+            "- Nested bullet look: prefix with two spaces then \"• \" inside the bullet component; for example \"  • \".\n" +
+            "- Separate items with \"\\n\" components in the array.\n" +
+            "- Vary bullet colors per item if asked; vary text color independently.\n" +
+            "Required output format:\n" +
+            "- Return only the finished /tellraw command as one single line of JSON; do not wrap it in quotes or fences; no leading or trailing spaces.";
+
+    private static final String REGULAR_SEGMENT_INSTRUCTIONS = REGULAR_PERSONA + SEGMENTS_POLICY;
+
+    private static final String SILENT_PERSONA =
+            // Data-focused guardrails.
+            "You are ChadGPT; a minecraft player assisting other players on a server. The players in this minecraft server do not have access to your knowledgebase files or other in-game files. Do not expose the existence of those files. " +
+            "You are an in-game assistant; everything is in one continuous text string. You cannot use Markdown elements or new lines because of this. " +
+            "Additionally, you should limit your responses to 300 words. You should respond purely with information from the json files. " +
+            "Use recent player chat for context but always respond to the last message. Use the attached files to answer the user's questions about Silent gear materials and traits.\n";
+
+    private static final String SILENT_THEME =
+            "Color segments based on the discussed material or trait; e.g., emerald-like materials use an emerald tone; gems use gemstone hues; rainbows vary across allowed colors.";
+
+    private static final String SILENT_INSTRUCTIONS = SILENT_PERSONA +
+            // Tellraw policy.
+            "You format messages for Minecraft Java 1.16.5 using /tellraw.\n" +
+            "Output policy:\n" +
+            "- Emit exactly one physical line per response; no literal newlines; no commentary; no code fences.\n" +
+            "- Command shape must be: /tellraw @a <Component>\n" +
+            "- Use Raw JSON Text; not SNBT; not Bedrock rawtext; not section symbol codes.\n" +
+            "- Only these keys are allowed on objects: \"text\", \"color\", \"bold\", \"italic\".\n" +
+            "- To compose multiple segments, use a top-level JSON array of components.\n" +
+            "- For visual line breaks, include the literal string \"\\n\" as an array element or inside a \"text\" string.\n" +
+            "- Never invent other keys; never use hoverEvent; clickEvent; extra; score; selector; translate; nbt.\n" +
+            "Colors:\n" +
+            "- Allowed color names for \"color\" plus their canonical hex equivalents:\n" +
+            "  black #000000; dark_blue #0000AA; dark_green #00AA00; dark_aqua #00AAAA; dark_red #AA0000; dark_purple #AA00AA; gold #FFAA00; gray #AAAAAA; dark_gray #555555; blue #5555FF; green #55FF55; aqua #55FFFF; red #FF5555; light_purple #FF55FF; yellow #FFFF55; white #FFFFFF.\n" +
+            "- You may also use 6-digit hex strings like \"#00ff88\".\n" +
+            "Formatting rules:\n" +
+            "- Bold: \"bold\": true\n" +
+            "- Italic: \"italic\": true\n" +
+            "- You may combine bold and italic on the same segment.\n" +
+            "- Colors apply per segment.\n" +
+            "Required output format:\n" +
+            "- Return only the finished /tellraw command as one single line of JSON; do not wrap it in quotes or fences; no leading or trailing spaces.\n" +
+            SILENT_THEME;
+
+    private static final String SILENT_SEGMENT_INSTRUCTIONS = SILENT_PERSONA + SEGMENTS_POLICY + SILENT_THEME;
+
+    private static final String ORE_PERSONA =
+            // Data-focused guardrails.
+            "You are ChadGPT; a minecraft player assisting other players on a server. The players in this minecraft server do not have access to your knowledgebase files or other in-game files. Do not expose the existence of those files. " +
+            "You are an in-game assistant; everything is in one continuous text string; no markdown; no literal newlines. " +
+            "Limit your response to 200 words. Answer strictly using the attached JSON data files related to ores, such as ore_height_ranges.json (fields: dimension, ore, minY, maxY). " +
+            "Use recent player chat for context but always respond to the last message. If a specific ore or dimension is mentioned, filter to those entries; otherwise summarize key ranges succinctly.\n";
+
+    private static final String ORE_THEME =
+            "Color segments based on the ore or dimension theme (e.g., emerald-like tones for emerald topics).";
+
+    private static final String ORE_INSTRUCTIONS = ORE_PERSONA +
+            // Tellraw policy.
+            "You format messages for Minecraft Java 1.16.5 using /tellraw.\n" +
+            "Output policy:\n" +
+            "- Emit exactly one physical line per response; no literal newlines; no commentary; no code fences.\n" +
+            "- Command shape must be: /tellraw @a <Component>\n" +
+            "- Use Raw JSON Text; not SNBT; not Bedrock rawtext; not section symbol codes.\n" +
+            "- Only these keys are allowed on objects: \"text\", \"color\", \"bold\", \"italic\".\n" +
+            "- To compose multiple segments, use a top-level JSON array of components.\n" +
+            "- For visual line breaks, include the literal string \"\\n\" as an array element or inside a \"text\" string.\n" +
+            "- Never invent other keys; never use hoverEvent; clickEvent; extra; score; selector; translate; nbt.\n" +
+            "Colors:\n" +
+            "- Allowed color names for \"color\" plus their canonical hex equivalents: black #000000; dark_blue #0000AA; dark_green #00AA00; dark_aqua #00AAAA; dark_red #AA0000; dark_purple #AA00AA; gold #FFAA00; gray #AAAAAA; dark_gray #555555; blue #5555FF; green #55FF55; aqua #55FFFF; red #FF5555; light_purple #FF55FF; yellow #FFFF55; white #FFFFFF.\n" +
+            "- You may also use 6-digit hex strings like \"#00ff88\".\n" +
+            "Formatting rules:\n" +
+            "- Bold: \"bold\": true; Italic: \"italic\": true. You may combine them. Colors apply per segment.\n" +
+            "Required output format:\n" +
+            "- Return only the finished /tellraw command as one single line of JSON; do not wrap it in quotes or fences; no leading or trailing spaces.\n" +
+            ORE_THEME;
+
+    private static final String ORE_SEGMENT_INSTRUCTIONS = ORE_PERSONA + SEGMENTS_POLICY + ORE_THEME;
+
+    // One trigger waiting for a worker.
+    private static final class Job {
+        final Route route;
+        final List<ChatLine> context;
+        final String message;
+        final String author;
+        final MinecraftServer server;
+        final long triggerNanos;
+        final Session session;
+        // Set when this is a follow-up chained on the player's last response; cleared if the chain breaks.
+        volatile String previousResponseId;
+        // Id of the stored response that answered this job alone; null for batched answers.
+        volatile String responseId;
+        // player|route; null when the player is unknown and nothing can supersede this job.
+        final String supersedeKey;
+        volatile boolean cancelled;
+        // Claimed once: by the worker that puts the job in a call, or by cancel() before that happens.
+        // Follow-ups go straight to the pool, so being out of PENDING does not mean a worker has them.
+        final AtomicBoolean started = new AtomicBoolean();
+        // The call answering this job once a worker has taken it.
+        volatile Call call;
+
+        Job(Route route, List<ChatLine> context, String message, String author, MinecraftServer server, long triggerNanos,
+            Session session, String previousResponseId, String supersedeKey) {
+            this.route = route;
+            this.context = context;
+            this.message = message;
+            this.author = author;
+            this.server = server;
+            this.triggerNanos = triggerNanos;
+            this.session = session;
+            this.previousResponseId = previousResponseId;
+            this.supersedeKey = supersedeKey;
+        }
+    }
+
+    // One Responses call in flight; shared by every job it answers. It is aborted only once all
+    // of them are cancelled: the connection is dropped and the worker interrupted out of any backoff.
+    private static final class Call {
+        final List<Job> jobs;
+        final long startNanos = System.nanoTime();
+        private Thread worker = Thread.currentThread();
+        private HttpURLConnection conn;
+        private boolean aborted;
+
+        Call(List<Job> jobs) {
+            this.jobs = jobs;
+        }
+
+        synchronized boolean aborted() {
+            return aborted;
+        }
+
+        // Worker registers each attempt's connection; false once the call was aborted.
+        synchronized boolean attach(HttpURLConnection c) {
+            conn = c;
+            return !aborted;
+        }
+
+        synchronized void finish() {
+            worker = null;
+            conn = null;
+            if (aborted) Thread.interrupted(); // do not leak the interrupt into the next pool task
+        }
+
+        synchronized boolean abortIfAllCancelled() {
+            if (aborted || worker == null) return false;
+            for (Job j : jobs) {
+                if (!j.cancelled) return false;
+            }
+            aborted = true;
+            if (conn != null) conn.disconnect();
+            worker.interrupt();
+            return true;
+        }
+    }
+
+    // Drop a job: never sent if no worker has started it, else its answer is discarded and the call
+    // aborted when nobody else waits on it. Reclaimed worker time is estimated from the average of
+    // the kind of call the job rides on: its own chained call, its share of a batch, or a single call.
+    private static void cancel(Job job, String reason) {
+        if (job.cancelled) return;
+        job.cancelled = true;
+        ACTIVE.remove(job);
+        if (job.supersedeKey != null) LATEST_BY_PLAYER_ROUTE.remove(job.supersedeKey, job);
+        ChadGptMetrics.inc("cancelled." + reason);
+
+        if (job.started.compareAndSet(false, true)) {
+            Deque<Job> queue = PENDING.get(job.route);
+            queue.remove(job);
+            // Anything else still queued would have gone out in the same batch call.
+            long avgMs = job.previousResponseId != null ? averageMs("chained", "calls")
+                    : BATCH_MAX > 1 && !queue.isEmpty() ? averageMs("batch", "questions")
+                    : averageMs("single", "calls");
+            ChadGptMetrics.inc("cancelled.queued");
+            ChadGptMetrics.add("cancelled.reclaimed_ms", avgMs);
+            return;
+        }
+        Call call = job.call;
+        if (call != null && call.abortIfAllCancelled()) {
+            String kind = call.jobs.size() > 1 ? "batch" : job.previousResponseId != null ? "chained" : "single";
+            ChadGptMetrics.inc("cancelled.aborted");
+            ChadGptMetrics.add("cancelled.reclaimed_ms",
+                    Math.max(0, averageMs(kind, "calls") - (System.nanoTime() - call.startNanos) / 1_000_000L));
+        } else {
+            ChadGptMetrics.inc("cancelled.discarded");
+        }
+    }
+
+    // Average worker time of one kind of call, per call or per question; 0 before the first such call.
+    private static long averageMs(String kind, String per) {
+        long n = ChadGptMetrics.get(kind + "." + per);
+        return n == 0 ? 0 : ChadGptMetrics.get(kind + ".ms") / n;
+    }
+
+    // Worker side of onChat; takes whatever is queued for the route, up to BATCH_MAX, and answers it
+    // in one call. Extra drain tasks find the queue already empty and return.
+    private void drain(Route route) {
+        Deque<Job> queue = PENDING.get(route);
+        // An earlier task already took this trigger's job; nothing to wait for.
+        if (queue.isEmpty()) return;
+        if (BATCH_LINGER_MS > 0 && queue.size() < BATCH_MAX) {
+            try {
+                Thread.sleep(BATCH_LINGER_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        List<Job> batch = new ArrayList<>();
+        for (Job j; batch.size() < BATCH_MAX && (j = queue.pollFirst()) != null; ) batch.add(j);
+        if (!batch.isEmpty()) answer(route, batch);
+    }
+
+    private void answer(Route route, List<Job> jobs) {
+        // Jobs cancelled before a worker got to them stay out of the call.
+        List<Job> batch = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            if (job.started.compareAndSet(false, true)) batch.add(job);
+        }
+        if (batch.isEmpty()) return;
+        Call call = new Call(batch);
+        for (Job job : batch) job.call = call;
+
+        List<String> outputs;
+        try {
+            boolean allCancelled = true;
+            for (Job job : batch) allCancelled &= job.cancelled;
+            if (allCancelled) return;
+            outputs = batch.size() == 1
+                    ? Collections.singletonList(responsesForRoute(batch.get(0)))
+                    : responsesBatch(route, batch);
+        } finally {
+            call.finish();
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            Job job = batch.get(i);
+            ACTIVE.remove(job);
+            if (job.supersedeKey != null) LATEST_BY_PLAYER_ROUTE.remove(job.supersedeKey, job);
+            // Superseded or shutting down; a stale answer must not follow the fresh one.
+            if (job.cancelled || outputs.get(i) == null) continue;
+
+            // Build one or more tellraw commands; inject identifier; split on "\n"
+            List<String> cmds = buildReplyCommands(outputs.get(i));
+            logFirstRequestLatency(job.triggerNanos);
+            job.server.execute(() -> {
+                if (job.cancelled) return;
+                for (String c : cmds) {
+                    job.server.getCommands().performCommand(job.server.createCommandSourceStack(), c);
+                    LOG.info("[ChadGPT out] " + extractPlainTextFromCommand(c));
+                }
+                // Start a new two-message follow-up window for the asker after the final response is sent.
+                Session session = job.session;
+                if (session != null) {
+                    session.lastRoute = job.route;
+                    session.lastResponseId = job.responseId;
+                    session.lastActiveMs = System.currentTimeMillis();
+                    session.followRemaining.set(2);
+                }
+            });
+        }
+    }
+
+    // First turn of a possible conversation: move the instructions into a stored developer message so
+    // that a later previous_response_id turn keeps them without resending.
+    private static void makeChainable(JsonObject body) {
+        JsonArray input = new JsonArray();
+        JsonObject developer = new JsonObject();
+        developer.addProperty("role", "developer");
+        developer.addProperty("content", body.remove("instructions").getAsString());
+        input.add(developer);
+        JsonObject user = new JsonObject();
+        user.addProperty("role", "user");
+        user.addProperty("content", body.remove("input").getAsString());
+        input.add(user);
+        body.add("input", input);
+        body.addProperty("store", true);
+    }
+
+    // Checks shared by every call on a route; returns a fallback command when the route cannot run.
+    private static String routeUnavailable(Route route) {
+        String apiKey = env(API_KEY_ENV);
+        if (apiKey.isEmpty()) {
             return fallbackTellraw("Set the " + API_KEY_ENV + " environment variable for ChadGPT.");
         }
+        if (route.vectorStoreEnv != null && env(route.vectorStoreEnv).trim().isEmpty()) {
+            return fallbackTellraw(route.missingStoreMessage);
+        }
+        return null;
+    }
 
-        String instructions =
-                // Voice and behavior.
-                "You are ChadGPT; a chaotic Gen Alpha brainrot minecraft player assisting other players on a server. " +
-                "Speak in extreme brainrot style; meme-heavy; zoomer slang; absurd energy; lowercase only; minimal punctuation. " +
-                "No emojis. No links. No new lines in the physical output. Use recent player chat for context but answer the last message. " +
-                "Color segments based on theme; for example if the subject mentions emerald, use an emerald tone; if it mentions rainbow, vary colors across the line.\n" +
-                // /tellraw policy block; verbatim rules embedded.
-                "You format messages for Minecraft Java 1.16.5 using /tellraw.\n" +
-                "Output policy:\n" +
-                "- Emit exactly one physical line per response; no literal newlines; no commentary; no code fences.\n" +
-                "- Command shape must be: /tellraw @a <Component>\n" +
-                "- Use Raw JSON Text; not SNBT; not Bedrock rawtext; not section symbol codes.\n" +
-                "- Only these keys are allowed on objects: \"text\", \"color\", \"bold\", \"italic\".\n" +
-                "- To compose multiple segments, use a top-level JSON array of components.\n" +
-                "- For visual line breaks, include the literal string \"\\n\" as an array element or inside a \"text\" string.\n" +
-                "- Never invent other keys; never use hoverEvent; clickEvent; extra; score; selector; translate; nbt.\n" +
-                "Colors:\n" +
-                "- Allowed color names for \"color\" plus their canonical hex equivalents:\n" +
-                "  black #000000; dark_blue #0000AA; dark_green #00AA00; dark_aqua #00AAAA; dark_red #AA0000; dark_purple #AA00AA; gold #FFAA00; gray #AAAAAA; dark_gray #555555; blue #5555FF; green #55FF55; aqua #55FFFF; red #FF5555; light_purple #FF55FF; yellow #FFFF55; white #FFFFFF.\n" +
-                "- You may also use 6-digit hex strings like \"#00ff88\".\n" +
-                "Formatting rules:\n" +
-                "- Bold: \"bold\": true\n" +
-                "- Italic: \"italic\": true\n" +
-                "- You may combine bold and italic on the same segment.\n" +
-                "- Colors apply per segment.\n" +
-                "List rendering rules:\n" +
-                "- Unordered bullet: prefix the item with a bullet component whose text is \"• \" and your chosen bullet color.\n" +
-                "- Nested bullet look: prefix with two spaces then \"• \" inside the bullet component; for example \"  • \".\n" +
-                "- Separate items with \"\\n\" components in the array.\n" +
-                "- Vary bullet colors per item if asked; vary text color independently.\n" +
-                "Required output format:\n" +
-                "- Return only the finished /tellraw command as one single line of JSON; do not wrap it in quotes or fences; no leading or trailing spaces.";
-
-        // Build input with context then the latest message.
-        StringBuilder in = new StringBuilder();
+    private static JsonObject newRequestBody(Route route, String instructions, String input, boolean fileSearch) {
+        JsonObject body = new JsonObject();
+        body.addProperty("model", MODEL);
+        if (instructions != null) body.addProperty("instructions", instructions);
+        body.addProperty("input", input);
+        // Structured output; not inherited from a previous response, so every turn sends it.
+        if (SEGMENTS) body.add("text", textFormat("chadgpt_segments", objectSchema(properties("segments", segmentArraySchema()))));
+
+        if (route.vectorStoreEnv != null && fileSearch) {
+            // Tools: file_search with vector store id from ENV; nothing else added.
+            JsonArray tools = new JsonArray();
+            JsonObject tool = new JsonObject();
+            tool.addProperty("type", "file_search");
+            JsonArray vsIds = new JsonArray();
+            vsIds.add(env(route.vectorStoreEnv).trim());
+            tool.add("vector_store_ids", vsIds);
+            tools.add(tool);
+            body.add("tools", tools);
+            // Ask for the retrieved chunks too so they can be reused locally.
+            if (RETRIEVAL != null) body.add("include", stringArray("file_search_call.results"));
+        }
+        return body;
+    }
+
+    // Build input with context; oldest first.
+    private static void appendContext(StringBuilder in, List<ChatLine> previous) {
         if (!previous.isEmpty()) {
             in.append("Recent chat context:\n");
             for (ChatLine c : previous) {
                 in.append(c.author).append(": ").append(c.text).append("\n");
             }
         }
-        in.append(latestUserMessage);
-        String input = in.toString();
+    }
+
+    // Returns null when the job was cancelled before its answer arrived.
+    private String responsesForRoute(Job job) {
+        if (job.cancelled) return null;
+        Route route = job.route;
+        String unavailable = routeUnavailable(route);
+        if (unavailable != null) return unavailable;
+
+        String previousResponseId = job.previousResponseId;
+        boolean chained = previousResponseId != null;
+        List<ChatLine> previous = job.context;
+        String latestUserMessage = job.message;
+
+        // A similar earlier question already pulled the chunks this one needs; send them inline
+        // and skip the file_search hop. Misses and low-confidence matches search live.
+        List<RetrievalCache.Chunk> cached = !chained && route.vectorStoreEnv != null && RETRIEVAL != null
+                ? RETRIEVAL.lookup(route.name(), latestUserMessage)
+                : null;
+
+        // Reference data, context, then the latest message. A chained turn already has all of it
+        // server-side and sends the new message alone.
+        StringBuilder in = new StringBuilder();
+        if (chained) {
+            in.append(latestUserMessage);
+        } else if (cached != null) {
+            in.append("Reference data from your knowledge files:\n");
+            for (RetrievalCache.Chunk c : cached) {
+                in.append(c.text.trim()).append("\n");
+            }
+            in.append("\n");
+        }
+        if (!chained) {
+            appendContext(in, previous);
+            in.append(latestUserMessage);
+        }
 
         try {
-            JsonObject body = new JsonObject();
-            body.addProperty("model", MODEL);
-            body.addProperty("instructions", instructions);
-            body.addProperty("input", input);
-
+            JsonObject body;
+            if (chained) {
+                // Instructions are not inherited from a previous response; they ride in the stored
+                // developer message instead. Tools are not inherited either and go out every turn.
+                body = newRequestBody(route, null, in.toString(), true);
+                body.addProperty("previous_response_id", previousResponseId);
+            } else {
+                body = newRequestBody(route, route.instructions(), in.toString(), cached == null);
+                if (SESSION_CHAINING) makeChainable(body);
+            }
             byte[] payload = body.toString().getBytes(StandardCharsets.UTF_8);
-            String resp = httpPostResponses(payload, apiKey);
-            if (resp == null) return fallbackTellraw("The muse is muted; check server logs.");
-            String out = extractResponsesOutputText(resp);
-            return out == null || out.isEmpty()
-                    ? fallbackTellraw("Silence. Try again.")
-                    : out;
+            long t0 = System.nanoTime();
+            // Chained turns depend on the conversation so far and are never shared.
+            HttpResult resp = httpPostResponses(payload, env(API_KEY_ENV), job.call,
+                    chained ? null : answerKey(route, latestUserMessage));
+            if (job.cancelled) return null;
+            if (chained && chainRejected(resp)) {
+                // Stored response expired or was rejected; answer with the full context instead.
+                LOG.warn("ChadGPT follow-up chain for {} broken; resending with full context", job.author);
+                ChadGptMetrics.inc("chained.broken");
+                job.previousResponseId = null;
+                return responsesForRoute(job);
+            }
+            if (!resp.ok()) return fallbackTellraw("The muse is muted; check server logs.");
+            ApiReply reply = parseResponses(resp.body);
+            recordCall(chained ? "chained" : "single", 1, t0, reply, payload.length);
+            // A shared answer was stored with another server's chat; follow-ups start afresh instead.
+            job.responseId = resp.shared ? null : reply.id;
+            if (!chained && cached == null && route.vectorStoreEnv != null && RETRIEVAL != null) {
+                RETRIEVAL.store(route.name(), latestUserMessage, fileSearchResults(reply));
+            }
+            String out = reply.text;
+            if (out == null || out.isEmpty()) {
+                // Empty text; refusals land here too, as they carry no output text.
+                countUnusableReply();
+                return fallbackTellraw("Silence. Try again.");
+            }
+            return out;
         } catch (Exception ex) {
             LOG.warn("OpenAI Responses call failed", ex);
             return fallbackTellraw("Network gremlins; try again soon.");
@@ -262,99 +782,250 @@ public class ChadGptMod {
     }
 
     // ---------------------------
-    // Silent Gear route; Responses API plus file_search tool with vector store id from ENV.
-    // Request body includes only: model; instructions; input; tools.
+    // Batch; several queued questions for one route in a single call. The route's instructions
+    // and the shared chat context go out once; the model returns one tellraw (or segment list)
+    // per question id through a strict JSON schema. Returns outputs in job order.
     // ---------------------------
-    private String responsesWithFileSearch(List<ChatLine> previous, String latestUserMessage) {
-        String apiKey = System.getenv(API_KEY_ENV);
-        if (apiKey == null || apiKey.isEmpty()) {
-            return fallbackTellraw("Set the " + API_KEY_ENV + " environment variable for ChadGPT.");
+    private static final String BATCH_INSTRUCTIONS =
+            "\nBatch mode:\n" +
+            "- Several players asked questions at once; they are numbered in the input.\n" +
+            "- Answer each question on its own, following every rule above, as if it were the last message.\n" +
+            "- Return JSON only: {\"replies\":[{\"id\":<question number>,\"tellraw\":\"<the finished /tellraw command>\"}]} with one reply per question.";
+
+    private static final String BATCH_SEGMENT_INSTRUCTIONS =
+            "\nBatch mode:\n" +
+            "- Several players asked questions at once; they are numbered in the input.\n" +
+            "- Answer each question on its own, following every rule above, as if it were the last message.\n" +
+            "- Return JSON only: {\"replies\":[{\"id\":<question number>,\"segments\":[...]}]} with one reply per question.";
+
+    private List<String> responsesBatch(Route route, List<Job> batch) {
+        List<String> outputs = new ArrayList<>();
+        String unavailable = routeUnavailable(route);
+        if (unavailable != null) {
+            for (int i = 0; i < batch.size(); i++) outputs.add(unavailable);
+            return outputs;
         }
 
-        // Vector store id from environment variable.
-        String vectorStoreId = System.getenv("CHADGPT_VECTOR_STORE_ID");
-        if (vectorStoreId == null || vectorStoreId.trim().isEmpty()) {
-            return fallbackTellraw("Set CHADGPT_VECTOR_STORE_ID for Silent Gear file search.");
+        // The newest snapshot already holds the earlier questions as chat lines.
+        StringBuilder in = new StringBuilder();
+        appendContext(in, batch.get(batch.size() - 1).context);
+        in.append("Questions:\n");
+        for (int i = 0; i < batch.size(); i++) {
+            Job job = batch.get(i);
+            in.append('[').append(i + 1).append("] ").append(job.author).append(": ").append(job.message).append("\n");
         }
 
-        String instructions =
-                // Data-focused guardrails.
-                "You are ChadGPT; a minecraft player assisting other players on a server. The players in this minecraft server do not have access to your knowledgebase files or other in-game files. Do not expose the existence of those files. " +
-                "You are an in-game assistant; everything is in one continuous text string. You cannot use Markdown elements or new lines because of this. " +
-                "Additionally, you should limit your responses to 300 words. You should respond purely with information from the json files. " +
-                "Use recent player chat for context but always respond to the last message. Use the attached files to answer the user's questions about Silent gear materials and traits.\n" +
-                // Tellraw policy and theming.
-                "You format messages for Minecraft Java 1.16.5 using /tellraw.\n" +
-                "Output policy:\n" +
-                "- Emit exactly one physical line per response; no literal newlines; no commentary; no code fences.\n" +
-                "- Command shape must be: /tellraw @a <Component>\n" +
-                "- Use Raw JSON Text; not SNBT; not Bedrock rawtext; not section symbol codes.\n" +
-                "- Only these keys are allowed on objects: \"text\", \"color\", \"bold\", \"italic\".\n" +
-                "- To compose multiple segments, use a top-level JSON array of components.\n" +
-                "- For visual line breaks, include the literal string \"\\n\" as an array element or inside a \"text\" string.\n" +
-                "- Never invent other keys; never use hoverEvent; clickEvent; extra; score; selector; translate; nbt.\n" +
-                "Colors:\n" +
-                "- Allowed color names for \"color\" plus their canonical hex equivalents:\n" +
-                "  black #000000; dark_blue #0000AA; dark_green #00AA00; dark_aqua #00AAAA; dark_red #AA0000; dark_purple #AA00AA; gold #FFAA00; gray #AAAAAA; dark_gray #555555; blue #5555FF; green #55FF55; aqua #55FFFF; red #FF5555; light_purple #FF55FF; yellow #FFFF55; white #FFFFFF.\n" +
-                "- You may also use 6-digit hex strings like \"#00ff88\".\n" +
-                "Formatting rules:\n" +
-                "- Bold: \"bold\": true\n" +
-                "- Italic: \"italic\": true\n" +
-                "- You may combine bold and italic on the same segment.\n" +
-                "- Colors apply per segment.\n" +
-                "Required output format:\n" +
-                "- Return only the finished /tellraw command as one single line of JSON; do not wrap it in quotes or fences; no leading or trailing spaces.\n" +
-                "Color segments based on the discussed material or trait; e.g., emerald-like materials use an emerald tone; gems use gemstone hues; rainbows vary across allowed colors.";
-
-        // Build input with context then the latest message.
-        StringBuilder in = new StringBuilder();
-        if (!previous.isEmpty()) {
-            in.append("Recent chat context:\n");
-            for (ChatLine c : previous) {
-                in.append(c.author).append(": ").append(c.text).append("\n");
+        String[] byId = new String[batch.size()];
+        long t0 = 0;
+        ApiReply reply = null;
+        try {
+            // Results of a shared search cannot be tied to one question; batches search live.
+            JsonObject body = newRequestBody(route,
+                    route.instructions() + (SEGMENTS ? BATCH_SEGMENT_INSTRUCTIONS : BATCH_INSTRUCTIONS), in.toString(), true);
+            body.add("text", batchTextFormat());
+            byte[] payload = body.toString().getBytes(StandardCharsets.UTF_8);
+            t0 = System.nanoTime();
+            HttpResult resp = httpPostResponses(payload, env(API_KEY_ENV), batch.get(0).call, null);
+            if (!resp.ok()) {
+                for (int i = 0; i < batch.size(); i++) outputs.add(fallbackTellraw("The muse is muted; check server logs."));
+                return outputs;
+            }
+            reply = parseResponses(resp.body);
+
+            JsonArray replies = new JsonParser().parse(reply.text).getAsJsonObject().getAsJsonArray("replies");
+            for (JsonElement e : replies) {
+                JsonObject r = e.getAsJsonObject();
+                int id = r.get("id").getAsInt();
+                if (id < 1 || id > byId.length) continue;
+                if (SEGMENTS) {
+                    // Each job gets a reply shaped like a single-question segments answer.
+                    JsonObject one = new JsonObject();
+                    one.add("segments", r.getAsJsonArray("segments"));
+                    byId[id - 1] = one.toString();
+                } else {
+                    byId[id - 1] = r.get("tellraw").getAsString();
+                }
+            }
+            // Only a batch that actually answered counts towards the per-question averages.
+            recordCall("batch", batch.size(), t0, reply, payload.length);
+        } catch (Exception ex) {
+            // Unparseable batch; answer each question on its own rather than dropping them.
+            LOG.warn("ChadGPT batch of {} failed; answering one by one: {}", batch.size(), ex.toString());
+            ChadGptMetrics.inc("batch.failed");
+            if (reply != null) {
+                // Spent without answering anyone; kept apart so the retries are not counted twice.
+                ChadGptMetrics.add("batch.failed_ms", (System.nanoTime() - t0) / 1_000_000L);
+                ChadGptMetrics.add("batch.failed_tokens", reply.inputTokens + reply.outputTokens);
+            }
+            for (Job job : batch) outputs.add(responsesForRoute(job));
+            return outputs;
+        }
+
+        for (String s : byId) {
+            if (s == null || s.trim().isEmpty()) {
+                countUnusableReply();
+                outputs.add(fallbackTellraw("Lost in the crowd; ask again."));
+            } else {
+                outputs.add(s);
             }
         }
-        in.append(latestUserMessage);
-        String input = in.toString();
+        return outputs;
+    }
 
-        try {
-            JsonObject body = new JsonObject();
-            body.addProperty("model", MODEL);
-            body.addProperty("instructions", instructions);
-            body.addProperty("input", input);
-
-            // Tools: file_search with vector store id from ENV; nothing else added.
-            JsonArray tools = new JsonArray();
-            JsonObject tool = new JsonObject();
-            tool.addProperty("type", "file_search");
-            JsonArray vsIds = new JsonArray();
-            vsIds.add(vectorStoreId.trim());
-            tool.add("vector_store_ids", vsIds);
-            tools.add(tool);
-            body.add("tools", tools);
+    // text.format for batch replies: {"replies":[{"id":int,"tellraw":string}]}, or
+    // {"replies":[{"id":int,"segments":[...]}]} in segments mode.
+    private static JsonObject batchTextFormat() {
+        JsonObject item = SEGMENTS
+                ? objectSchema(properties("id", schemaType("integer"), "segments", segmentArraySchema()))
+                : objectSchema(properties("id", schemaType("integer"), "tellraw", schemaType("string")));
+        JsonObject replies = schemaType("array");
+        replies.add("items", item);
+        return textFormat("chadgpt_batch", objectSchema(properties("replies", replies)));
+    }
 
-            byte[] payload = body.toString().getBytes(StandardCharsets.UTF_8);
-            String resp = httpPostResponses(payload, apiKey);
-            if (resp == null) return fallbackTellraw("The muse is muted; check server logs.");
-            String out = extractResponsesOutputText(resp);
-            return out == null || out.isEmpty()
-                    ? fallbackTellraw("Silence. Try again.")
-                    : out;
-        } catch (Exception ex) {
-            LOG.warn("OpenAI Responses call failed", ex);
-            return fallbackTellraw("Network gremlins; try again soon.");
-        }
+    // One segment: {"t":text,"c":palette index,"b":bold,"i":italic,"n":line break after}.
+    // Short keys keep the generated JSON small; the enum keeps c inside PALETTE.
+    private static JsonObject segmentArraySchema() {
+        JsonObject color = schemaType("integer");
+        JsonArray indexes = new JsonArray();
+        for (int i = 0; i < PALETTE.length; i++) indexes.add(i);
+        color.add("enum", indexes);
+
+        JsonObject segments = schemaType("array");
+        segments.add("items", objectSchema(properties(
+                "t", schemaType("string"),
+                "c", color,
+                "b", schemaType("boolean"),
+                "i", schemaType("boolean"),
+                "n", schemaType("boolean"))));
+        return segments;
+    }
+
+    private static JsonObject textFormat(String name, JsonObject schema) {
+        JsonObject format = new JsonObject();
+        format.addProperty("type", "json_schema");
+        format.addProperty("name", name);
+        format.addProperty("strict", true);
+        format.add("schema", schema);
+        JsonObject text = new JsonObject();
+        text.add("format", format);
+        return text;
+    }
+
+    // Strict mode wants every property required and nothing else allowed.
+    private static JsonObject objectSchema(JsonObject properties) {
+        JsonObject o = schemaType("object");
+        o.add("properties", properties);
+        JsonArray required = new JsonArray();
+        for (Map.Entry<String, JsonElement> e : properties.entrySet()) required.add(e.getKey());
+        o.add("required", required);
+        o.addProperty("additionalProperties", false);
+        return o;
+    }
+
+    // name, schema, name, schema, ...
+    private static JsonObject properties(Object... nameSchemaPairs) {
+        JsonObject props = new JsonObject();
+        for (int i = 0; i < nameSchemaPairs.length; i += 2) {
+            props.add((String) nameSchemaPairs[i], (JsonObject) nameSchemaPairs[i + 1]);
+        }
+        return props;
+    }
+
+    private static JsonObject schemaType(String type) {
+        JsonObject o = new JsonObject();
+        o.addProperty("type", type);
+        return o;
+    }
+
+    private static JsonArray stringArray(String... values) {
+        JsonArray arr = new JsonArray();
+        for (String v : values) arr.add(v);
+        return arr;
+    }
+
+    // Per-call stats; kind is "single", "chained" or "batch". Per-question averages show the latency/cost trade-off.
+    private static void recordCall(String kind, int questions, long startNanos, ApiReply reply, int payloadBytes) {
+        long ms = (System.nanoTime() - startNanos) / 1_000_000L;
+        ChadGptMetrics.inc(kind + ".calls");
+        ChadGptMetrics.add(kind + ".questions", questions);
+        ChadGptMetrics.add(kind + ".payload_bytes", payloadBytes);
+        ChadGptMetrics.add(kind + ".ms", ms);
+        ChadGptMetrics.add(kind + ".input_tokens", reply.inputTokens);
+        ChadGptMetrics.add(kind + ".output_tokens", reply.outputTokens);
+        ChadGptMetrics.add("format." + OUTPUT_MODE + ".replies", questions);
+        ChadGptMetrics.add("format." + OUTPUT_MODE + ".output_tokens", reply.outputTokens);
+        if ("batch".equals(kind)) {
+            ChadGptMetrics.max("batch.max_size", questions);
+            LOG.info("[ChadGPT batch] {} questions in one call; {} ms; tokens in {} out {}", questions, ms, reply.inputTokens, reply.outputTokens);
+        }
+        if (ChadGptMetrics.inc("calls") % STATS_EVERY == 0) logStats();
     }
 
-    // Shared HTTP POST with retries and higher timeouts for Responses API.
-    private String httpPostResponses(byte[] payload, String apiKey) {
+    // One short line per feature; every counter is in the shutdown summary.
+    private static void logStats() {
+        LOG.info("[ChadGPT stats calls] per question; single {} ms, {} in / {} out tokens; batch {} ms, {} in / {} out tokens",
+                ChadGptMetrics.ratio("single.ms", "single.questions"),
+                ChadGptMetrics.ratio("single.input_tokens", "single.questions"),
+                ChadGptMetrics.ratio("single.output_tokens", "single.questions"),
+                ChadGptMetrics.ratio("batch.ms", "batch.questions"),
+                ChadGptMetrics.ratio("batch.input_tokens", "batch.questions"),
+                ChadGptMetrics.ratio("batch.output_tokens", "batch.questions"));
+        LOG.info("[ChadGPT stats batch] avg size {}, max {}; {} failed, {} ms and {} tokens wasted",
+                ChadGptMetrics.ratio("batch.questions", "batch.calls"),
+                ChadGptMetrics.get("batch.max_size"),
+                ChadGptMetrics.get("batch.failed"),
+                ChadGptMetrics.get("batch.failed_ms"),
+                ChadGptMetrics.get("batch.failed_tokens"));
+        LOG.info("[ChadGPT stats sessions] request bytes single {} chained {}; {} chains broken",
+                ChadGptMetrics.ratio("single.payload_bytes", "single.calls"),
+                ChadGptMetrics.ratio("chained.payload_bytes", "chained.calls"),
+                ChadGptMetrics.get("chained.broken"));
+        LOG.info("[ChadGPT stats retrieval] {}", retrievalHitRate());
+        LOG.info("[ChadGPT stats output] {}", outputStats());
+        LOG.info("[ChadGPT stats cancelled] {} superseded, {} at shutdown; ~{} ms worker time reclaimed",
+                ChadGptMetrics.get("cancelled.superseded"),
+                ChadGptMetrics.get("cancelled.shutdown"),
+                ChadGptMetrics.get("cancelled.reclaimed_ms"));
+    }
+
+    // Outcome of one Responses POST; code is -1 when no response arrived or the call was aborted.
+    private static final class HttpResult {
+        final int code;
+        final String body;
+        // Served by the gateway from another caller's request; its response id belongs to that caller's conversation.
+        final boolean shared;
+
+        HttpResult(int code, String body) {
+            this(code, body, false);
+        }
+
+        HttpResult(int code, String body, boolean shared) {
+            this.code = code;
+            this.body = body;
+            this.shared = shared;
+        }
+
+        boolean ok() {
+            return code / 100 == 2 && body != null;
+        }
+    }
+
+    // Shared HTTP POST with retries and higher timeouts for Responses API. Retries connection
+    // failures, timeouts, 408, 429 and 5xx; any other status is final and returned at once.
+    // call may be null for untracked requests; answerKey, when set, lets the gateway share the
+    // reply with every request carrying the same key.
+    private HttpResult httpPostResponses(byte[] payload, String apiKey, Call call, String answerKey) {
         String resp = null;
         int code = -1;
+        boolean shared = false;
+        String url = GATEWAY_URL.isEmpty() ? RESPONSES_URL : GATEWAY_URL;
 
         for (int attempt = 0; attempt <= HTTP_RETRIES; attempt++) {
             HttpURLConnection conn = null;
             try {
-                conn = (HttpURLConnection) new URL(RESPONSES_URL).openConnection();
+                conn = (HttpURLConnection) new URL(url).openConnection();
+                if (call != null && !call.attach(conn)) return new HttpResult(-1, null);
                 conn.setConnectTimeout(RESP_CONNECT_MS);
                 conn.setReadTimeout(RESP_READ_MS);
                 conn.setDoOutput(true);
@@ -362,41 +1033,98 @@ public class ChadGptMod {
                 conn.setRequestProperty("Content-Type", "application/json");
                 conn.setRequestProperty("Authorization", "Bearer " + apiKey);
                 conn.setRequestProperty("User-Agent", "ChadGPT-Forge/1.7");
+                if (answerKey != null && !url.equals(RESPONSES_URL)) conn.setRequestProperty("X-ChadGPT-Answer-Key", answerKey);
 
                 try (OutputStream os = conn.getOutputStream()) {
                     os.write(payload);
                 }
 
                 code = conn.getResponseCode();
-                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                String source = conn.getHeaderField("X-ChadGPT-Gateway");
+                shared = "hit".equals(source) || "coalesced".equals(source);
+                // Read to the end and close the stream rather than disconnecting; the socket then
+                // returns to the JDK keep-alive cache and the next call can skip the TLS handshake.
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
                         code >= 200 && code < 300 ? conn.getInputStream() : conn.getErrorStream(),
-                        StandardCharsets.UTF_8));
-                StringBuilder sb = new StringBuilder();
-                for (String line; (line = reader.readLine()) != null; ) sb.append(line);
-                resp = sb.toString();
+                        StandardCharsets.UTF_8))) {
+                    StringBuilder sb = new StringBuilder();
+                    for (String line; (line = reader.readLine()) != null; ) sb.append(line);
+                    resp = sb.toString();
+                }
 
                 if (code / 100 == 2) break; // success
+                if (code != 408 && code != 429 && code < 500) break; // the same request would be refused again
             } catch (Exception e) {
+                if (call != null && call.aborted()) return new HttpResult(-1, null); // cancelled; the dropped socket is expected
                 LOG.warn("Responses API attempt {} failed: {}", attempt + 1, e.toString());
-            } finally {
                 if (conn != null) conn.disconnect();
+                // Gateway not running; go direct straight away, without spending a retry, rather than lose the trigger.
+                if (e instanceof ConnectException && !url.equals(RESPONSES_URL)) {
+                    LOG.warn("ChadGPT gateway at {} unreachable; calling {} directly", url, RESPONSES_URL);
+                    url = RESPONSES_URL;
+                    attempt--;
+                    continue;
+                }
             }
             if (attempt < HTTP_RETRIES) backoffSleep(attempt);
+            if (call != null && call.aborted()) return new HttpResult(-1, null);
         }
 
         if (code / 100 != 2 || resp == null) {
             LOG.warn("OpenAI Responses API error {}; giving up", code);
-            return null;
         }
-        return resp;
+        return new HttpResult(code, resp, shared);
     }
+
+    // What decides an answer: model, route, the instructions (which carry the output mode) and the
+    // question as typed, give or take case and spacing. Chat context is left out on purpose so the
+    // same question on two servers behind one gateway is paid for once.
+    private static String answerKey(Route route, String question) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            String q = question.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+            byte[] d = md.digest((MODEL + "\n" + route.name() + "\n" + route.instructions() + "\n" + q).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (byte b : d) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (Exception e) {
+            return null; // no shared key; the gateway falls back to the exact body
+        }
+    }
+
+    // The stored response behind previous_response_id is gone or not ours; only a fresh
+    // full-context request can answer. Other failures would fail the same way again.
+    private static boolean chainRejected(HttpResult r) {
+        return (r.code == 400 || r.code == 404) && r.body != null && r.body.contains("previous_response");
+    }
 
+    // Parsed Responses reply; the output text plus what the stats need.
+    private static final class ApiReply {
+        String id;
+        String text = "";
+        JsonArray output;
+        long inputTokens;
+        long outputTokens;
+    }
+
+    private static String extractResponsesOutputText(String respJson) {
+        return parseResponses(respJson).text;
+    }
+
     // Responses parsing; prefer output[..].content[..].text; fallback to output_text.
-    private static String extractResponsesOutputText(String respJson) {
+    private static ApiReply parseResponses(String respJson) {
+        ApiReply reply = new ApiReply();
         try {
             JsonObject root = new JsonParser().parse(respJson).getAsJsonObject();
+            if (root.has("id") && root.get("id").isJsonPrimitive()) reply.id = root.get("id").getAsString();
+            JsonObject usage = root.has("usage") && root.get("usage").isJsonObject() ? root.getAsJsonObject("usage") : null;
+            if (usage != null) {
+                if (usage.has("input_tokens")) reply.inputTokens = usage.get("input_tokens").getAsLong();
+                if (usage.has("output_tokens")) reply.outputTokens = usage.get("output_tokens").getAsLong();
+            }
             StringBuilder out = new StringBuilder();
             JsonArray output = root.getAsJsonArray("output");
+            reply.output = output;
             if (output != null) {
                 for (JsonElement elem : output) {
                     if (!elem.isJsonObject()) continue;
@@ -415,14 +1143,43 @@ public class ChadGptMod {
                 }
             }
             String s = out.toString().trim();
-            if (!s.isEmpty()) return s.replace("\r", " ").replace("\n", " ").trim();
-            if (root.has("output_text")) {
-                return root.get("output_text").getAsString().replace("\r", " ").replace("\n", " ").trim();
+            if (!s.isEmpty()) {
+                reply.text = s.replace("\r", " ").replace("\n", " ").trim();
+            } else if (root.has("output_text")) {
+                reply.text = root.get("output_text").getAsString().replace("\r", " ").replace("\n", " ").trim();
             }
         } catch (Throwable t) {
             LOG.warn("Failed to parse Responses API JSON", t);
         }
-        return "";
+        return reply;
+    }
+
+    // Chunks from output[..] items of type file_search_call; present when the request asked
+    // for include:["file_search_call.results"].
+    private static List<RetrievalCache.Chunk> fileSearchResults(ApiReply reply) {
+        List<RetrievalCache.Chunk> chunks = new ArrayList<>();
+        if (reply.output == null) return chunks;
+        try {
+            for (JsonElement elem : reply.output) {
+                if (!elem.isJsonObject()) continue;
+                JsonObject obj = elem.getAsJsonObject();
+                if (!obj.has("type") || !"file_search_call".equals(obj.get("type").getAsString())) continue;
+                if (!obj.has("results") || !obj.get("results").isJsonArray()) continue;
+                for (JsonElement re : obj.getAsJsonArray("results")) {
+                    if (!re.isJsonObject()) continue;
+                    JsonObject r = re.getAsJsonObject();
+                    if (!r.has("text") || r.get("text").isJsonNull()) continue;
+                    chunks.add(new RetrievalCache.Chunk(
+                            r.has("file_id") ? r.get("file_id").getAsString() : "",
+                            r.has("filename") ? r.get("filename").getAsString() : "",
+                            r.has("score") ? r.get("score").getAsDouble() : 0,
+                            r.get("text").getAsString()));
+                }
+            }
+        } catch (Throwable t) {
+            LOG.warn("Failed to read file_search results; not caching them: {}", t.toString());
+        }
+        return chunks;
     }
 
     // ----- Tellraw assembly and utilities -----
@@ -444,6 +1201,55 @@ public class ChadGptMod {
         return "tellraw @a " + arr.toString();
     }
 
+    // Segments replies are JSON objects; everything else, fallbacks included, is a tellraw command.
+    private static List<String> buildReplyCommands(String output) {
+        return SEGMENTS && output != null && output.trim().startsWith("{")
+                ? buildTellrawCommandsFromSegments(output)
+                : buildTellrawCommandsWithIdentifier(output);
+    }
+
+    // Turn a segments reply into one or more tellraw commands. The model only chose text and
+    // style; every component is built here, so the command is valid whatever the text says.
+    // - map color indexes onto PALETTE; reject anything outside it
+    // - turn "n" flags into "\n" elements and split on them
+    // - inject <ChadGPT> identifier at the start of each line
+    private static List<String> buildTellrawCommandsFromSegments(String modelOutput) {
+        List<String> out = new ArrayList<>();
+        try {
+            JsonArray segments = new JsonParser().parse(modelOutput).getAsJsonObject().getAsJsonArray("segments");
+            JsonArray arr = new JsonArray();
+            for (JsonElement e : segments) {
+                JsonObject seg = e.getAsJsonObject();
+                String text = seg.get("t").getAsString().replace("\r", "");
+                int color = seg.get("c").getAsInt();
+                if (color < 0 || color >= PALETTE.length) throw new IllegalArgumentException("color index " + color);
+                if (!text.isEmpty()) {
+                    JsonObject comp = new JsonObject();
+                    comp.addProperty("text", text);
+                    comp.addProperty("color", PALETTE[color]);
+                    if (seg.has("b") && seg.get("b").getAsBoolean()) comp.addProperty("bold", true);
+                    if (seg.has("i") && seg.get("i").getAsBoolean()) comp.addProperty("italic", true);
+                    arr.add(comp);
+                }
+                if (seg.has("n") && seg.get("n").getAsBoolean()) arr.add(new JsonPrimitive("\n"));
+            }
+            // A break after the last item would only add an empty tagged line.
+            while (arr.size() > 0 && arr.get(arr.size() - 1).isJsonPrimitive()) arr.remove(arr.size() - 1);
+            if (arr.size() == 0) throw new IllegalArgumentException("no text");
+
+            for (JsonArray line : splitIntoLines(arr)) {
+                out.add("tellraw @a " + prependIdentifier(line).toString());
+            }
+            return out;
+        } catch (Throwable t) {
+            LOG.warn("Failed to read model segments; using fallback: {}", t.toString());
+            countUnusableReply();
+            out.clear();
+            out.add(fallbackTellraw("Formatting error; try again."));
+            return out;
+        }
+    }
+
     // Turn the model's single-line /tellraw into one or more tellraw commands:
     // - validate prefix
     // - parse JSON
@@ -461,12 +1267,14 @@ public class ChadGptMod {
         // Accept with or without leading slash.
         if (lower.startsWith("/tellraw ")) s = s.substring(1);
         else if (!lower.startsWith("tellraw ")) {
+            countUnusableReply();
             out.add(fallbackTellraw("Expected /tellraw output."));
             return out;
         }
 
         String lowerCmd = s.toLowerCase(Locale.ROOT);
         if (!lowerCmd.startsWith("tellraw @a ")) {
+            countUnusableReply();
             out.add(fallbackTellraw("Command target must be @a."));
             return out;
         }
@@ -474,6 +1282,7 @@ public class ChadGptMod {
         int idx = "tellraw @a ".length();
         String jsonPart = s.substring(idx).trim();
         if (jsonPart.isEmpty()) {
+            countUnusableReply();
             out.add(fallbackTellraw("Missing JSON component."));
             return out;
         }
@@ -490,6 +1299,7 @@ public class ChadGptMod {
             return out;
         } catch (Throwable t) {
             LOG.warn("Failed to parse model tellraw JSON; using fallback", t);
+            countUnusableReply();
             out.add(fallbackTellraw("Formatting error; try again."));
             return out;
         }
@@ -608,87 +1418,6 @@ public class ChadGptMod {
         return out;
     }
 
-    // ---------------------------
-    // Ore route; Responses API plus file_search tool with dedicated vector store id from ENV.
-    // Request body includes only: model; instructions; input; tools.
-    // ---------------------------
-    private String responsesWithOreFileSearch(List<ChatLine> previous, String latestUserMessage) {
-        String apiKey = System.getenv(API_KEY_ENV);
-        if (apiKey == null || apiKey.isEmpty()) {
-            return fallbackTellraw("Set the " + API_KEY_ENV + " environment variable for ChadGPT.");
-        }
-
-        // Vector store id for ore DB from environment variable.
-        String vectorStoreId = System.getenv("CHADGPT_ORE_VECTOR_STORE_ID");
-        if (vectorStoreId == null || vectorStoreId.trim().isEmpty()) {
-            return fallbackTellraw("Set CHADGPT_ORE_VECTOR_STORE_ID for Ore file search.");
-        }
-
-        String instructions =
-                // Data-focused guardrails.
-                "You are ChadGPT; a minecraft player assisting other players on a server. The players in this minecraft server do not have access to your knowledgebase files or other in-game files. Do not expose the existence of those files. " +
-                "You are an in-game assistant; everything is in one continuous text string; no markdown; no literal newlines. " +
-                "Limit your response to 200 words. Answer strictly using the attached JSON data files related to ores, such as ore_height_ranges.json (fields: dimension, ore, minY, maxY). " +
-                "Use recent player chat for context but always respond to the last message. If a specific ore or dimension is mentioned, filter to those entries; otherwise summarize key ranges succinctly.\n" +
-                // Tellraw policy and theming.
-                "You format messages for Minecraft Java 1.16.5 using /tellraw.\n" +
-                "Output policy:\n" +
-                "- Emit exactly one physical line per response; no literal newlines; no commentary; no code fences.\n" +
-                "- Command shape must be: /tellraw @a <Component>\n" +
-                "- Use Raw JSON Text; not SNBT; not Bedrock rawtext; not section symbol codes.\n" +
-                "- Only these keys are allowed on objects: \"text\", \"color\", \"bold\", \"italic\".\n" +
-                "- To compose multiple segments, use a top-level JSON array of components.\n" +
-                "- For visual line breaks, include the literal string \"\\n\" as an array element or inside a \"text\" string.\n" +
-                "- Never invent other keys; never use hoverEvent; clickEvent; extra; score; selector; translate; nbt.\n" +
-                "Colors:\n" +
-                "- Allowed color names for \"color\" plus their canonical hex equivalents: black #000000; dark_blue #0000AA; dark_green #00AA00; dark_aqua #00AAAA; dark_red #AA0000; dark_purple #AA00AA; gold #FFAA00; gray #AAAAAA; dark_gray #555555; blue #5555FF; green #55FF55; aqua #55FFFF; red #FF5555; light_purple #FF55FF; yellow #FFFF55; white #FFFFFF.\n" +
-                "- You may also use 6-digit hex strings like \"#00ff88\".\n" +
-                "Formatting rules:\n" +
-                "- Bold: \"bold\": true; Italic: \"italic\": true. You may combine them. Colors apply per segment.\n" +
-                "Required output format:\n" +
-                "- Return only the finished /tellraw command as one single line of JSON; do not wrap it in quotes or fences; no leading or trailing spaces.\n" +
-                "Color segments based on the ore or dimension theme (e.g., emerald-like tones for emerald topics).";
-
-        // Build input with context then the latest message.
-        StringBuilder in = new StringBuilder();
-        if (!previous.isEmpty()) {
-            in.append("Recent chat context:\n");
-            for (ChatLine c : previous) {
-                in.append(c.author).append(": ").append(c.text).append("\n");
-            }
-        }
-        in.append(latestUserMessage);
-        String input = in.toString();
-
-        try {
-            JsonObject body = new JsonObject();
-            body.addProperty("model", MODEL);
-            body.addProperty("instructions", instructions);
-            body.addProperty("input", input);
-
-            // Tools: file_search with ore vector store id.
-            JsonArray tools = new JsonArray();
-            JsonObject tool = new JsonObject();
-            tool.addProperty("type", "file_search");
-            JsonArray vsIds = new JsonArray();
-            vsIds.add(vectorStoreId.trim());
-            tool.add("vector_store_ids", vsIds);
-            tools.add(tool);
-            body.add("tools", tools);
-
-            byte[] payload = body.toString().getBytes(StandardCharsets.UTF_8);
-            String resp = httpPostResponses(payload, apiKey);
-            if (resp == null) return fallbackTellraw("The muse is muted; check server logs.");
-            String out = extractResponsesOutputText(resp);
-            return out == null || out.isEmpty()
-                    ? fallbackTellraw("Silence. Try again.")
-                    : out;
-        } catch (Exception ex) {
-            LOG.warn("OpenAI Responses call failed", ex);
-            return fallbackTellraw("Network gremlins; try again soon.");
-        }
-    }
-
     // Gson's JsonElement#deepCopy is not public in many versions; provide our own.
     private static JsonElement deepCopy(JsonElement element) {
         if (element == null || element.isJsonNull()) {
@@ -788,7 +1517,134 @@ public class ChadGptMod {
         return "tellraw @a " + arr.toString();
     }
 
+    // ---------------------------
+    // Startup warm-up; pays the one-time costs that otherwise land on the first trigger:
+    // env lookups, DNS, JSSE init and the TLS handshake to RESPONSES_URL (or the gateway), Gson class loading,
+    // and cold parse/format paths. The JDK keeps the resolved address and the TLS session,
+    // so later handshakes resume instead of starting from scratch.
+    // ---------------------------
+    private static final String WARMUP_RESPONSE_FIXTURE =
+            "{\"id\":\"resp_warmup\",\"object\":\"response\",\"output\":[{\"type\":\"message\",\"role\":\"assistant\",\"content\":[" +
+            "{\"type\":\"output_text\",\"text\":\"/tellraw @a [\\\"\\\",{\\\"text\\\":\\\"emeralds \\\",\\\"color\\\":\\\"green\\\",\\\"bold\\\":true}," +
+            "{\\\"text\\\":\\\"spawn low\\\\nin mountains\\\",\\\"color\\\":\\\"#00ff88\\\",\\\"italic\\\":true},\\\"\\\\n\\\"," +
+            "[{\\\"text\\\":\\\"• \\\",\\\"color\\\":\\\"gold\\\"},\\\"y 4 to 32\\\"]]\"}]}]," +
+            "\"usage\":{\"input_tokens\":1,\"output_tokens\":1}}";
+
+    private static final String WARMUP_SEGMENTS_FIXTURE =
+            "{\"segments\":[{\"t\":\"emeralds \",\"c\":10,\"b\":true,\"i\":false,\"n\":false}," +
+            "{\"t\":\"spawn low in mountains\",\"c\":2,\"b\":false,\"i\":true,\"n\":true}," +
+            "{\"t\":\"• \",\"c\":6,\"b\":false,\"i\":false,\"n\":false},{\"t\":\"y 4 to 32\",\"c\":15,\"b\":false,\"i\":false,\"n\":false}]}";
+
+    private static void warmup() {
+        long t0 = System.nanoTime();
+        try {
+            // Local data; every env var a route reads.
+            String apiKey = env(API_KEY_ENV);
+            if (apiKey.isEmpty()) LOG.warn("ChadGPT warm-up: {} is not set; triggers will answer with a fallback.", API_KEY_ENV);
+            env("CHADGPT_VECTOR_STORE_ID");
+            env("CHADGPT_ORE_VECTOR_STORE_ID");
+
+            // Templates; run the parse/format paths on a representative reply.
+            long tParse = System.nanoTime();
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                JsonObject body = new JsonObject();
+                body.addProperty("model", MODEL);
+                body.addProperty("input", "warm-up " + i);
+                body.toString().getBytes(StandardCharsets.UTF_8);
+
+                String text = extractResponsesOutputText(WARMUP_RESPONSE_FIXTURE);
+                for (String c : buildTellrawCommandsWithIdentifier(text)) {
+                    extractPlainTextFromCommand(c);
+                }
+                if (SEGMENTS) buildTellrawCommandsFromSegments(WARMUP_SEGMENTS_FIXTURE);
+                buildAckTellraw("Message received.");
+                fallbackTellraw("Silence. Try again.");
+            }
+            long parseMs = (System.nanoTime() - tParse) / 1_000_000L;
+
+            // Connections; resolve the host then complete one TLS handshake. Failure here is not
+            // fatal; the first real request simply pays the cost instead.
+            String net;
+            try {
+                long tDns = System.nanoTime();
+                URL url = new URL(GATEWAY_URL.isEmpty() ? RESPONSES_URL : GATEWAY_URL);
+                InetAddress.getAllByName(url.getHost());
+                long dnsMs = (System.nanoTime() - tDns) / 1_000_000L;
+
+                long tTls = System.nanoTime();
+                int code = warmupHandshake(url);
+                long tlsMs = (System.nanoTime() - tTls) / 1_000_000L;
+                net = "dns " + dnsMs + " ms; handshake " + tlsMs + " ms, HTTP " + code;
+            } catch (Exception e) {
+                net = "endpoint unreachable: " + e;
+            }
+
+            LOG.info("ChadGPT warm-up finished in {} ms (parse/format {} ms x{}; {})",
+                    (System.nanoTime() - t0) / 1_000_000L, parseMs, WARMUP_ITERATIONS, net);
+        } catch (Throwable t) {
+            LOG.warn("ChadGPT warm-up incomplete after {} ms: {}", (System.nanoTime() - t0) / 1_000_000L, t.toString());
+        } finally {
+            warmupDone = true;
+        }
+    }
+
+    // Unauthenticated HEAD to the endpoint; any status proves DNS, TCP and TLS are done.
+    private static int warmupHandshake(URL url) throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(RESP_CONNECT_MS);
+        conn.setReadTimeout(RESP_CONNECT_MS);
+        conn.setRequestMethod("HEAD");
+        conn.setRequestProperty("User-Agent", "ChadGPT-Forge/1.7");
+        int code = conn.getResponseCode();
+        // Drain so the socket can go back to the keep-alive cache.
+        InputStream in = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        if (in != null) {
+            byte[] buf = new byte[512];
+            while (in.read(buf) != -1) { /* drain */ }
+            in.close();
+        }
+        return code;
+    }
+
+    private static void logFirstRequestLatency(long triggerNanos) {
+        if (FIRST_REQUEST_LOGGED.compareAndSet(false, true)) {
+            LOG.info("ChadGPT first request latency {} ms (warm-up {})",
+                    (System.nanoTime() - triggerNanos) / 1_000_000L, !WARMUP ? "disabled" : warmupDone ? "finished" : "still running");
+        }
+    }
+
+    // Hits over all lookups as a percentage, with the entry count.
+    private static String retrievalHitRate() {
+        if (RETRIEVAL == null) return "off";
+        long hits = ChadGptMetrics.get("retrieval.hits");
+        long lookups = hits + ChadGptMetrics.get("retrieval.misses") + ChadGptMetrics.get("retrieval.low_confidence");
+        return (lookups == 0 ? "-" : (hits * 100 / lookups) + "%") + " hit, " + RETRIEVAL.size() + " entries";
+    }
+
+    // A model reply that reached no player as written: empty or refused, missing from a batch, or
+    // not buildable into tellraw. Counted against the active mode whichever builder caught it,
+    // since in segments mode a non-JSON reply is handed to the tellraw builder.
+    private static void countUnusableReply() {
+        ChadGptMetrics.inc("format." + OUTPUT_MODE + ".failures");
+    }
+
+    // Output tokens per reply and the share of replies that could not be turned into tellraw,
+    // for the active output mode; run once per mode to compare them.
+    private static String outputStats() {
+        String m = "format." + OUTPUT_MODE;
+        long replies = ChadGptMetrics.get(m + ".replies");
+        return OUTPUT_MODE + " " + ChadGptMetrics.ratio(m + ".output_tokens", m + ".replies") + " out tokens/reply, "
+                + (replies == 0 ? "-" : (ChadGptMetrics.get(m + ".failures") * 100 / replies) + "%") + " unusable";
+    }
+
     // Helpers.
+    private static String env(String name) {
+        return ENV_CACHE.computeIfAbsent(name, n -> {
+            String v = System.getenv(n);
+            return v == null ? "" : v;
+        });
+    }
+
     private static void backoffSleep(int attempt) {
         try {
             long wait = (long)(RETRY_BASE_MS * Math.pow(2, attempt));
@@ -0,0 +1,207 @@
+package com.example.chadgpt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Local copy of file_search results; lets a similar later question carry the chunks inline
+// instead of paying for another vector store lookup. Bounded by entry count and total text size;
+// least recently used entries go first.
+final class RetrievalCache {
+    // Words that say nothing about which chunk answers the question; route triggers included.
+    private static final Set<String> STOPWORDS = new HashSet<>(Arrays.asList(
+            "chadgpt", "silent", "gear", "ore", "ores",
+            "a", "an", "the", "is", "are", "was", "were", "be", "do", "does", "did", "has", "have", "can", "could",
+            "should", "would", "will", "what", "whats", "which", "who", "where", "when", "why", "how",
+            "i", "me", "my", "you", "your", "we", "it", "its", "this", "that", "these", "those",
+            "of", "in", "on", "at", "to", "for", "and", "or", "with", "from", "by", "about", "as",
+            "tell", "please", "pls", "define", "explain", "get", "find", "best", "good", "any", "some"));
+
+    static final class Chunk {
+        final String fileId;
+        final String filename;
+        final double score;
+        final String text;
+
+        Chunk(String fileId, String filename, double score, String text) {
+            this.fileId = fileId;
+            this.filename = filename;
+            this.score = score;
+            this.text = text;
+        }
+    }
+
+    private static final class Entry {
+        final Set<String> keyTerms;
+        // Every word of the key and the chunks; the route's known subjects, never used to match.
+        final Set<String> vocabulary;
+        final List<Chunk> chunks;
+        final long chars;
+        final long storedMs;
+
+        Entry(Set<String> keyTerms, List<Chunk> chunks, long storedMs) {
+            this.keyTerms = keyTerms;
+            this.chunks = chunks;
+            this.storedMs = storedMs;
+            Set<String> vocabulary = new HashSet<>(keyTerms);
+            long n = 0;
+            for (Chunk c : chunks) {
+                vocabulary.addAll(terms(c.text));
+                n += c.text.length();
+            }
+            this.vocabulary = vocabulary;
+            this.chars = n;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxChars;
+    private final long ttlMs;
+    private final double minConfidence;
+    private final int maxExtraTerms;
+    private final double minScore;
+    private final int maxChunks;
+
+    // Access order; the eldest entry is the least recently used.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalChars = 0;
+
+    RetrievalCache(int maxEntries, long maxChars, long ttlMs, double minConfidence, int maxExtraTerms, double minScore, int maxChunks) {
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+        this.ttlMs = ttlMs;
+        this.minConfidence = minConfidence;
+        this.maxExtraTerms = maxExtraTerms;
+        this.minScore = minScore;
+        this.maxChunks = maxChunks;
+    }
+
+    // Chunks for a question on a route, or null when the live file_search should run instead.
+    // Confidence is the share of the stored question's terms found in the new one; chunk text
+    // never counts towards it, since a chunk about "crimson iron" also mentions plain "iron".
+    // A few extra words are tolerated ("crimson iron traits bro"), but only words the cached
+    // data for the route has never mentioned; a word it knows may name another subject
+    // ("crimson iron traits" against a plain "iron traits" entry) and forces a live search.
+    synchronized List<Chunk> lookup(String route, String question) {
+        Set<String> q = terms(question);
+        if (q.isEmpty()) {
+            ChadGptMetrics.inc("retrieval.misses");
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, Entry> onRoute = new LinkedHashMap<>();
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry> e = it.next();
+            if (now - e.getValue().storedMs > ttlMs) {
+                totalChars -= e.getValue().chars;
+                it.remove();
+                ChadGptMetrics.inc("retrieval.expired");
+                continue;
+            }
+            if (e.getKey().startsWith(route + "|")) onRoute.put(e.getKey(), e.getValue());
+        }
+
+        String bestKey = null;
+        double best = 0;
+        int bestExtra = Integer.MAX_VALUE;
+        for (Map.Entry<String, Entry> e : onRoute.entrySet()) {
+            Set<String> key = e.getValue().keyTerms;
+            int shared = 0;
+            int extra = 0;
+            boolean otherSubject = false;
+            for (String t : q) {
+                if (key.contains(t)) {
+                    shared++;
+                } else {
+                    extra++;
+                    otherSubject |= known(t, onRoute.values());
+                }
+            }
+            if (shared == 0 || otherSubject || extra > maxExtraTerms) continue;
+            double confidence = (double) shared / key.size();
+            // Ties go to the entry the question adds the fewest words to.
+            if (confidence > best || (confidence == best && extra < bestExtra)) {
+                best = confidence;
+                bestExtra = extra;
+                bestKey = e.getKey();
+            }
+        }
+
+        if (bestKey == null) {
+            ChadGptMetrics.inc("retrieval.misses");
+            return null;
+        }
+        if (best < minConfidence) {
+            ChadGptMetrics.inc("retrieval.low_confidence");
+            return null;
+        }
+        ChadGptMetrics.inc("retrieval.hits");
+        return entries.get(bestKey).chunks; // get() refreshes LRU order
+    }
+
+    // Keep the useful part of a live file_search; weak retrievals are not worth reusing.
+    synchronized void store(String route, String question, List<Chunk> results) {
+        Set<String> key = terms(question);
+        if (key.isEmpty() || results.isEmpty()) return;
+
+        List<Chunk> kept = new ArrayList<>();
+        for (Chunk c : results) {
+            if (c.score >= minScore && c.text != null && !c.text.trim().isEmpty()) kept.add(c);
+        }
+        if (kept.isEmpty()) {
+            ChadGptMetrics.inc("retrieval.weak");
+            return;
+        }
+        kept.sort((a, b) -> Double.compare(b.score, a.score));
+        if (kept.size() > maxChunks) kept = new ArrayList<>(kept.subList(0, maxChunks));
+
+        Entry entry = new Entry(Collections.unmodifiableSet(key), Collections.unmodifiableList(kept), System.currentTimeMillis());
+        if (entry.chars > maxChars) return;
+
+        Entry old = entries.put(route + "|" + String.join(" ", key), entry);
+        if (old != null) totalChars -= old.chars;
+        totalChars += entry.chars;
+        ChadGptMetrics.inc("retrieval.stored");
+
+        Iterator<Entry> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || totalChars > maxChars) && it.hasNext()) {
+            totalChars -= it.next().chars;
+            it.remove();
+            ChadGptMetrics.inc("retrieval.evicted");
+        }
+    }
+
+    // True when some cached entry on the route has the word in its question or chunks.
+    private static boolean known(String term, Iterable<Entry> route) {
+        for (Entry e : route) {
+            if (e.vocabulary.contains(term)) return true;
+        }
+        return false;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    // Lowercase content words; sorted so the same words always make the same key.
+    static Set<String> terms(String text) {
+        Set<String> out = new TreeSet<>();
+        if (text == null) return out;
+        for (String w : text.toLowerCase(Locale.ROOT).split("[^a-z0-9]+")) {
+            if (w.length() < 2 || STOPWORDS.contains(w)) continue;
+            // Fold simple plurals so "emeralds" finds "emerald".
+            if (w.length() > 3 && w.endsWith("s") && !w.endsWith("ss")) w = w.substring(0, w.length() - 1);
+            out.add(w);
+        }
+        return out;
+    }
+}